@@ -0,0 +1,186 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.zip.*;
+
+public class AlignmentCache
+{
+	public static final int MAGIC = 0x51524143;
+	public static final int VERSION = 3;
+	static final byte FORWARD = 0;
+	static final byte REVERSE = 1;
+	static final byte UNMAPPED = 2;
+
+	public String file;
+	public long settings;
+	public int hits;
+	public long unmapped;
+	public int added;
+	HashMap<Long,byte []> entries;
+
+	public AlignmentCache(String f, long s)
+	{
+		file=f;
+		settings=s;
+		hits=0;
+		unmapped=0;
+		added=0;
+		entries=new HashMap();
+	}
+
+	public static long settings(String reference, float gop, float gep, int kmer)
+	{
+		// everything the alignments depend on: the reference sequence and the scoring settings
+		CRC32 crc = new CRC32();
+		crc.update(reference.getBytes(StandardCharsets.ISO_8859_1));
+		ByteBuffer b = ByteBuffer.allocate(12);
+		b.putInt(Float.floatToIntBits(gop));
+		b.putInt(Float.floatToIntBits(gep));
+		b.putInt(kmer);
+		crc.update(b.array());
+		return crc.getValue();
+	}
+
+	public static long key(String sequence)
+	{
+		// 64-bit FNV-1a of the read sequence; the record also keeps the length as a check
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i<sequence.length(); i++)
+		{
+			h^=sequence.charAt(i);
+			h*=0x100000001b3L;
+		}
+		return h;
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	public boolean get(Read r)
+	throws IOException
+	{
+		// fills in the alignment of r from the cache, r.sequence being the parsed read
+		byte [] record = entries.get(key(r.sequence));
+		if (record==null)
+			return false;
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		if (in.readInt()!=r.sequence.length())
+			return false;
+		byte orientation = in.readByte();
+		r.orientation=(orientation==FORWARD)?"forward":((orientation==REVERSE)?"reverse":"unmapped");
+		r.mappingPosition=in.readInt();
+		r.start=in.readFloat();
+		r.stop=in.readFloat();
+		r.score=in.readFloat();
+		r.similarity=in.readFloat();
+		r.insertions=in.readInt();
+		byte [] sequence = new byte [in.readInt()];
+		in.readFully(sequence);
+		r.sequence=new String(sequence,StandardCharsets.ISO_8859_1);
+		long [] snps = new long [in.readInt()];
+		for (int i=0; i<snps.length; i++)
+			snps[i]=in.readLong();
+		r.SNPs=snps;
+		hits++;
+		if (orientation==UNMAPPED)
+			unmapped+=r.count;
+		return true;
+	}
+
+	public void put(long key, int length, Read r)
+	throws IOException
+	{
+		// key and length are those of the read as parsed, before alignment trimmed its sequence
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(length);
+		if (r.orientation.equals("forward"))
+			out.writeByte(FORWARD);
+		else if (r.orientation.equals("reverse"))
+			out.writeByte(REVERSE);
+		else
+			out.writeByte(UNMAPPED);
+		out.writeInt(r.mappingPosition);
+		out.writeFloat(r.start);
+		out.writeFloat(r.stop);
+		out.writeFloat(r.score);
+		out.writeFloat(r.similarity);
+		out.writeInt(r.insertions);
+		byte [] sequence = r.sequence.getBytes(StandardCharsets.ISO_8859_1);
+		out.writeInt(sequence.length);
+		out.write(sequence);
+		out.writeInt(r.SNPs.length);
+		for (int i=0; i<r.SNPs.length; i++)
+			out.writeLong(r.SNPs[i]);
+		out.close();
+		entries.put(key,bytes.toByteArray());
+		added++;
+	}
+
+	public void write()
+	throws IOException
+	{
+		// written next to the target and renamed, like the reference index
+		File target = new File(file);
+		File tmp = new File(file+"."+System.nanoTime()+".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),1<<16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(settings);
+		out.writeInt(entries.size());
+		for (Map.Entry<Long,byte []> e : entries.entrySet())
+		{
+			out.writeLong(e.getKey());
+			out.writeInt(e.getValue().length);
+			out.write(e.getValue());
+		}
+		out.close();
+		if (!tmp.renameTo(target))
+		{
+			target.delete();
+			if (!tmp.renameTo(target))
+			{
+				tmp.delete();
+				throw new IOException("cannot write alignment cache \""+file+"\"");
+			}
+		}
+	}
+
+	public static AlignmentCache load(String file, long settings)
+	throws IOException
+	{
+		// an empty cache is returned when the file is missing, from another version or was
+		// filled with another reference or other alignment settings
+		AlignmentCache ac = new AlignmentCache(file,settings);
+		File f = new File(file);
+		if (!f.isFile())
+			return ac;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f),1<<16));
+		try
+		{
+			if (in.readInt()!=MAGIC || in.readInt()!=VERSION || in.readLong()!=settings)
+				return ac;
+			int n = in.readInt();
+			for (int i=0; i<n; i++)
+			{
+				long key = in.readLong();
+				byte [] record = new byte [in.readInt()];
+				in.readFully(record);
+				ac.entries.put(key,record);
+			}
+			return ac;
+		}
+		catch (EOFException ex)
+		{
+			return new AlignmentCache(file,settings);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
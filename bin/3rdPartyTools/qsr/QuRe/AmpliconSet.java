@@ -73,7 +73,7 @@ public class AmpliconSet
 				Read r = population.get(i);
 				if (r.spans(starts[j],stops[j]))
 				{
-					rc++;
+					rc+=r.count;
 					covering[j].add(r);
 				}
 			}
@@ -112,27 +112,30 @@ public class AmpliconSet
 				allOverlappingReads.add(covering[j].get(i));
 			int subSample = 3333;
 			double odp=0;
+			int [] counts = Functions.cumulativeCounts(allOverlappingReads);
+			double size = (counts.length>0)?counts[counts.length-1]:0;
 			if (minReadCoverage>0 && allOverlappingReads.size()>0)
 			{
-				if ((double)allOverlappingReads.size()*((double)allOverlappingReads.size()-1d)/2d<subSample)
+				if (size*(size-1d)/2d<subSample)
 				{
+					// copies of the same read are at distance 0, only pairs of distinct reads add up
 					for (int i=0; i<allOverlappingReads.size(); i++)
 						for (int k=i+1; k<allOverlappingReads.size(); k++)
 						{
 							Read r1 = allOverlappingReads.get(i);
 							Read r2 = allOverlappingReads.get(k);
 							double dista = r1.distance(r2,starts[j],stops[j-1])/(stops[j-1]-starts[j]);
-							odp+=dista;
+							odp+=(double)r1.count*(double)r2.count*dista;
 						}
-					odp=odp/((double)allOverlappingReads.size()*((double)allOverlappingReads.size()-1d)/2d);
+					odp=odp/(size*(size-1d)/2d);
 					//System.out.println("full "+odp);
 				}
 				else
 				{
 					for (int i=0; i<subSample; i++)
 					{
-						Read r1 = allOverlappingReads.get((int)(Math.random()*(allOverlappingReads.size()-1)));
-						Read r2 = allOverlappingReads.get((int)(Math.random()*(allOverlappingReads.size()-1)));
+						Read r1 = allOverlappingReads.get(Functions.readAt(counts,(int)(Rng.random()*(size-1))));
+						Read r2 = allOverlappingReads.get(Functions.readAt(counts,(int)(Rng.random()*(size-1))));
 						double dista = r1.distance(r2,starts[j],stops[j-1])/(stops[j-1]-starts[j]);
 						odp+=dista;
 					}
@@ -291,39 +294,38 @@ public class AmpliconSet
 	{
 		double[] starts1;
 		double[] stops1;
-		double ch=Math.random();
+		double ch=Rng.random();
 		if (ch<0.9)
 		{
 			LinkedList<Double> startL = new LinkedList();
 			LinkedList<Double> stopL = new LinkedList();
 			startL.add(alignStart);
-			Random rndA = new Random();
-			double rngA = rndA.nextGaussian()*stdReadLength+(avgReadLength-3*stdReadLength);
+			double rngA = Rng.gaussian()*stdReadLength+(avgReadLength-3*stdReadLength);
 			if (stdReadLength<5)
 				{
-					rngA = rndA.nextGaussian()*5+(avgReadLength-3*5);
-					if (Math.random()<0.1) {rngA = rndA.nextGaussian()*Math.sqrt(avgReadLength)+avgReadLength/2;}
+					rngA = Rng.gaussian()*5+(avgReadLength-3*5);
+					if (Rng.random()<0.1) {rngA = Rng.gaussian()*Math.sqrt(avgReadLength)+avgReadLength/2;}
 				}
-			rngA = rndA.nextGaussian()*Math.sqrt(avgReadLength)+avgReadLength/1.5d;
-			if (Math.random()<0.1) {rngA = Math.random()*avgReadLength;}
+			rngA = Rng.gaussian()*Math.sqrt(avgReadLength)+avgReadLength/1.5d;
+			if (Rng.random()<0.1) {rngA = Rng.random()*avgReadLength;}
 			if (rngA<50)
-				rngA = Math.max(50,Math.random()*avgReadLength);
+				rngA = Math.max(50,Rng.random()*avgReadLength);
 			stopL.add(alignStart+rngA);
 			while (true)
 			{
 				if (stopL.getLast().doubleValue()==alignStop)
 					break;
-				rngA = rndA.nextGaussian()*stdReadLength+(avgReadLength-3*stdReadLength);
+				rngA = Rng.gaussian()*stdReadLength+(avgReadLength-3*stdReadLength);
 				if (stdReadLength<5)
 				{
-					rngA = rndA.nextGaussian()*5+(avgReadLength-3*5);
-					if (Math.random()<0.1) {rngA = rndA.nextGaussian()*Math.sqrt(avgReadLength)+avgReadLength/2;}
+					rngA = Rng.gaussian()*5+(avgReadLength-3*5);
+					if (Rng.random()<0.1) {rngA = Rng.gaussian()*Math.sqrt(avgReadLength)+avgReadLength/2;}
 				}
-				if (Math.random()<0.1) {rngA = Math.random()*avgReadLength;}
+				if (Rng.random()<0.1) {rngA = Rng.random()*avgReadLength;}
 				if (rngA<50)
-					rngA = Math.max(50,Math.random()*avgReadLength);
+					rngA = Math.max(50,Rng.random()*avgReadLength);
 				double minStart = Math.max(startL.getLast(),stopL.getLast()-rngA+1);
-				double actStart = minStart+Math.random()*(stopL.getLast()-minStart);
+				double actStart = minStart+Rng.random()*(stopL.getLast()-minStart);
 				double actStop = Math.max(stopL.getLast()+1,actStart+rngA);
 				actStop = Math.min(alignStop,actStop);
 				startL.add(actStart);
@@ -339,20 +341,19 @@ public class AmpliconSet
 		}
 		else
 		{
-			Random rndA = new Random();
-			double rngA = rndA.nextGaussian()*stdReadLength+(avgReadLength-3*stdReadLength);
+			double rngA = Rng.gaussian()*stdReadLength+(avgReadLength-3*stdReadLength);
 			if (stdReadLength<5)
 			{
-				rngA = rndA.nextGaussian()*5+(avgReadLength-3*5);
-				if (Math.random()<0.1) {rngA = rndA.nextGaussian()*Math.sqrt(avgReadLength)+avgReadLength/2;}
+				rngA = Rng.gaussian()*5+(avgReadLength-3*5);
+				if (Rng.random()<0.1) {rngA = Rng.gaussian()*Math.sqrt(avgReadLength)+avgReadLength/2;}
 			}
-			if (Math.random()<0.1) {rngA = Math.random()*avgReadLength;}
+			if (Rng.random()<0.1) {rngA = Rng.random()*avgReadLength;}
 			if (rngA<50)
-				rngA = Math.max(50,Math.random()*avgReadLength);
+				rngA = Math.max(50,Rng.random()*avgReadLength);
 			double window = rngA;
 			if (alignStart+window>alignStop)
 				window=(alignStop-alignStart)/3;
-			double step = Math.max(5,window*Math.random());
+			double step = Math.max(5,window*Rng.random());
 			LinkedList<Double> startL = new LinkedList();
 			LinkedList<Double> stopL = new LinkedList();
 			startL.add(alignStart);
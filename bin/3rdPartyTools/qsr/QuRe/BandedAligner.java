@@ -0,0 +1,427 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import jaligner.Alignment;
+import jaligner.matrix.*;
+
+public class BandedAligner
+{
+	public static final int INITIAL_BAND = 16;
+	public static final double MIN_ALIGNED_FRACTION = 0.9d;
+	public static final double MIN_SCORE_FRACTION = 0.75d;
+	static final byte STOP = 0;
+	static final byte LEFT = 1;
+	static final byte DIAGONAL = 2;
+	static final byte UP = 3;
+
+	public long alignments;
+	public long widenings;
+	public long ungapped;
+	char [] query;
+	char [] reference;
+	float [] v;
+	float [] g;
+	byte [] pointers;
+	short [] verticalGaps;
+	short [] horizontalGaps;
+	char [] reversed1;
+	char [] reversed2;
+	char [] reversed3;
+	boolean touchedEdge;
+	int alignedQuery;
+	Matrix rowMaximaMatrix;
+	float [] rowMaxima;
+
+	public BandedAligner()
+	{
+		alignments=0;
+		widenings=0;
+		ungapped=0;
+		query=new char [1024];
+		reference=new char [1024];
+		v=new float [1024];
+		g=new float [1024];
+		pointers=new byte [1<<16];
+		verticalGaps=new short [1<<16];
+		horizontalGaps=new short [1<<16];
+		reversed1=new char [2048];
+		reversed2=new char [2048];
+		reversed3=new char [2048];
+	}
+
+	public Alignment align(String q, String r, int refStart, int refStop, int diagonal, Matrix matrix, float o, float e)
+	{
+		// local alignment of q against r[refStart,refStop) restricted to a band around the seed
+		// diagonal (the reference position of the first read base). A path through the seed
+		// diagonal that leaves the band has gaps over more than w columns, costing at least o+w*e,
+		// so it scores at most the read's row maxima less that: a band result reaching this bound
+		// is the one the whole slice would give. Below it the band grows to the width whose bound
+		// the score reaches, at least doubling, as it does while the best path runs along the
+		// band's edge; it is opened to the whole slice at once when the score falls far off before
+		// the end of the read (a misplaced diagonal)
+		int m = q.length();
+		int n = refStop-refStart;
+		if (m>query.length)
+			query=new char [Math.max(query.length*2,m)];
+		if (n+1>reference.length)
+			reference=new char [Math.max(reference.length*2,n+1)];
+		q.getChars(0,m,query,0);
+		r.getChars(refStart,refStop,reference,0);
+		int d = diagonal-refStart;
+		int full = Math.max(1,Math.max(m+d-1,n-1-d));
+		int w = Math.min(INITIAL_BAND,full);
+		float [][] scores = matrix.getScores();
+		float [] maxima = rowMaxima(matrix);
+		float selfScore = 0;
+		float maxScore = 0;
+		for (int i=0; i<m; i++)
+		{
+			selfScore+=scores[query[i]][query[i]];
+			maxScore+=maxima[query[i]];
+		}
+		alignments++;
+		while (true)
+		{
+			Alignment a = align(m,n,d,w,scores,o,e);
+			a.setMatrix(matrix);
+			a.setOpen(o);
+			a.setExtend(e);
+			if (w>=full)
+				return a;
+			if (alignedQuery<MIN_ALIGNED_FRACTION*m || a.getScore()<MIN_SCORE_FRACTION*selfScore)
+				w=full;
+			else if (a.getScore()<maxScore-(o+w*e))
+				w=Math.min(Math.max(2*w,(int)Math.ceil((maxScore-a.getScore()-o)/e)),full);
+			else if (touchedEdge)
+				w=Math.min(2*w,full);
+			else
+				return a;
+			widenings++;
+		}
+	}
+
+	public Alignment alignUngapped(String q, String r, int refStart, int refStop, int diagonal, Matrix matrix, float o, float e)
+	{
+		// reads whose seeds all lie on one diagonal are scored along it directly. While the read loses
+		// less than one gap opening against its best possible score, any path with a gap scores below
+		// the diagonal at every cell, so the gapped recurrences would return this same alignment;
+		// otherwise null is returned and the read goes through the gapped aligner
+		int m = q.length();
+		if (diagonal<refStart || diagonal+m>refStop)
+			return null;
+		float [][] scores = matrix.getScores();
+		float [] maxima = rowMaxima(matrix);
+		float loss = 0;
+		float v = 0;
+		float best = 0;
+		int start = 0;
+		int bestStart = 0;
+		int bestEnd = 0;
+		for (int i=0; i<m; i++)
+		{
+			char c = q.charAt(i);
+			float s = scores[c][r.charAt(diagonal+i)];
+			loss+=maxima[c]-s;
+			if (loss>=o)
+				return null;
+			v=v+s;
+			if (v<=0)
+			{
+				v=0;
+				start=i+1;
+			}
+			else if (v>best)
+			{
+				best=v;
+				bestStart=start;
+				bestEnd=i+1;
+			}
+		}
+		int len = bestEnd-bestStart;
+		char [] a1 = new char [len];
+		char [] a2 = new char [len];
+		char [] markup = new char [len];
+		int identity = 0;
+		int similarity = 0;
+		for (int i=0; i<len; i++)
+		{
+			char c1 = q.charAt(bestStart+i);
+			char c2 = r.charAt(diagonal+bestStart+i);
+			a1[i]=c1;
+			a2[i]=c2;
+			if (c1==c2)
+			{
+				markup[i]='|';
+				identity++;
+				similarity++;
+			}
+			else if (scores[c1][c2]>0)
+			{
+				markup[i]=':';
+				similarity++;
+			}
+			else
+				markup[i]='.';
+		}
+		alignments++;
+		ungapped++;
+		Alignment a = new Alignment();
+		a.setScore(best);
+		a.setSequence1(a1);
+		a.setStart1(bestStart);
+		a.setSequence2(a2);
+		a.setStart2(diagonal+bestStart-refStart);
+		a.setMarkupLine(markup);
+		a.setIdentity(identity);
+		a.setGaps(0);
+		a.setSimilarity(similarity);
+		a.setMatrix(matrix);
+		a.setOpen(o);
+		a.setExtend(e);
+		return a;
+	}
+
+	float [] rowMaxima(Matrix matrix)
+	{
+		// best score each read character can reach against any reference character, at least 0
+		if (rowMaximaMatrix!=matrix)
+		{
+			float [][] scores = matrix.getScores();
+			float [] maxima = new float [scores.length];
+			for (int i=0; i<scores.length; i++)
+				for (int j=0; j<scores[i].length; j++)
+					maxima[i]=Math.max(maxima[i],scores[i][j]);
+			rowMaxima=maxima;
+			rowMaximaMatrix=matrix;
+		}
+		return rowMaxima;
+	}
+
+	Alignment align(int m, int n, int d, int w, float [][] scores, float o, float e)
+	{
+		// same recurrences, tie-breaking and gap-length bookkeeping as jaligner's SmithWatermanGotoh,
+		// evaluated only on the cells with |j-i-d|<=w; cells outside the band count as empty
+		int width = 2*w+1;
+		int cells = (m+1)*width;
+		if (cells>pointers.length)
+		{
+			int size = Math.max(pointers.length*2,cells);
+			pointers=new byte [size];
+			verticalGaps=new short [size];
+			horizontalGaps=new short [size];
+		}
+		if (n+1>v.length)
+		{
+			v=new float [Math.max(v.length*2,n+1)];
+			g=new float [v.length];
+		}
+		for (int j=0; j<=n; j++)
+		{
+			v[j]=0;
+			g[j]=Float.NEGATIVE_INFINITY;
+		}
+		char [] a1 = query;
+		char [] a2 = reference;
+		float bestScore = 0;
+		int bestI = 0;
+		int bestJ = 0;
+		for (int i=1; i<=m; i++)
+		{
+			int lo = i+d-w;
+			int from = Math.max(1,lo);
+			int to = Math.min(n,i+d+w);
+			if (from>to)
+				continue;
+			int k = i*width-lo;
+			float [] row = scores[a1[i-1]];
+			float h = Float.NEGATIVE_INFINITY;
+			float vLeft = 0;
+			float vDiagonal = v[from-1];
+			for (int j=from, l=k+from; j<=to; j++, l++)
+			{
+				float f = vDiagonal+row[a2[j-1]];
+				float g1 = g[j]-e;
+				float g2 = v[j]-o;
+				if (g1>g2)
+				{
+					g[j]=g1;
+					verticalGaps[l]=(short)(verticalGaps[l-width+1]+1);
+				}
+				else
+				{
+					g[j]=g2;
+					verticalGaps[l]=1;
+				}
+				float h1 = h-e;
+				float h2 = vLeft-o;
+				if (h1>h2)
+				{
+					h=h1;
+					horizontalGaps[l]=(short)(horizontalGaps[l-1]+1);
+				}
+				else
+				{
+					h=h2;
+					horizontalGaps[l]=1;
+				}
+				vDiagonal=v[j];
+				float vj = maximum(f,g[j],h,0);
+				v[j]=vj;
+				vLeft=vj;
+				if (vj==0)
+					pointers[l]=STOP;
+				else if (vj==f)
+					pointers[l]=DIAGONAL;
+				else if (vj==g[j])
+					pointers[l]=UP;
+				else
+					pointers[l]=LEFT;
+				if (vj>bestScore)
+				{
+					bestScore=vj;
+					bestI=i;
+					bestJ=j;
+				}
+			}
+		}
+		return traceback(m,n,d,w,scores,bestScore,bestI,bestJ);
+	}
+
+	static float maximum(float a, float b, float c, float d)
+	{
+		if (a>b)
+		{
+			if (a>c)
+				return (a>d)?a:d;
+			return (c>d)?c:d;
+		}
+		if (b>c)
+			return (b>d)?b:d;
+		return (c>d)?c:d;
+	}
+
+	boolean onEdge(int i, int j, int n, int d, int w)
+	{
+		// a path drifting into the outer quarter of the band is squeezed by it, unless that side
+		// of the band is already the border of the reference slice. Row and column 0 lie outside
+		// the matrix
+		if (i==0 || j==0)
+			return false;
+		int margin = Math.max(1,w/4);
+		int t = j-(i+d-w);
+		return ((t<margin && i+d-w>1) || (t>2*w-margin && i+d+w<n));
+	}
+
+	Alignment traceback(int m, int n, int d, int w, float [][] scores, float score, int i, int j)
+	{
+		int width = 2*w+1;
+		if (m+n>reversed1.length)
+		{
+			reversed1=new char [m+n];
+			reversed2=new char [m+n];
+			reversed3=new char [m+n];
+		}
+		char [] a1 = query;
+		char [] a2 = reference;
+		int len = 0;
+		int identity = 0;
+		int similarity = 0;
+		int gaps = 0;
+		int endI = i;
+		touchedEdge=false;
+		boolean stillGoing = (score>0);
+		while (stillGoing)
+		{
+			// row and column 0 are never filled in, they always stop the traceback
+			// every cell of a gap run is checked against the edge, not only where the run ends
+			int l = i*width-(i+d-w)+j;
+			if (onEdge(i,j,n,d,w))
+				touchedEdge=true;
+			switch ((i>0 && j>0)?pointers[l]:STOP)
+			{
+				case UP:
+					for (int c=0, size=verticalGaps[l]; c<size; c++)
+					{
+						if (onEdge(i,j,n,d,w))
+							touchedEdge=true;
+						reversed1[len]=a1[--i];
+						reversed2[len]=Alignment.GAP;
+						reversed3[len]=' ';
+						len++;
+						gaps++;
+					}
+					break;
+				case DIAGONAL:
+					char c1 = a1[--i];
+					char c2 = a2[--j];
+					reversed1[len]=c1;
+					reversed2[len]=c2;
+					if (c1==c2)
+					{
+						reversed3[len]='|';
+						identity++;
+						similarity++;
+					}
+					else if (scores[c1][c2]>0)
+					{
+						reversed3[len]=':';
+						similarity++;
+					}
+					else
+						reversed3[len]='.';
+					len++;
+					break;
+				case LEFT:
+					for (int c=0, size=horizontalGaps[l]; c<size; c++)
+					{
+						if (onEdge(i,j,n,d,w))
+							touchedEdge=true;
+						reversed1[len]=Alignment.GAP;
+						reversed2[len]=a2[--j];
+						reversed3[len]=' ';
+						len++;
+						gaps++;
+					}
+					break;
+				default:
+					stillGoing=false;
+			}
+		}
+		alignedQuery=endI-i;
+		Alignment a = new Alignment();
+		a.setScore(score);
+		a.setSequence1(reverse(reversed1,len));
+		a.setStart1(i);
+		a.setSequence2(reverse(reversed2,len));
+		a.setStart2(j);
+		a.setMarkupLine(reverse(reversed3,len));
+		a.setIdentity(identity);
+		a.setGaps(gaps);
+		a.setSimilarity(similarity);
+		return a;
+	}
+
+	public String withoutGaps(char [] a)
+	{
+		// the aligned read without its gap characters, built in the traceback buffer
+		if (a.length>reversed1.length)
+		{
+			reversed1=new char [a.length];
+			reversed2=new char [a.length];
+			reversed3=new char [a.length];
+		}
+		int len = 0;
+		for (int i=0; i<a.length; i++)
+			if (a[i]!=Alignment.GAP)
+				reversed1[len++]=a[i];
+		return new String(reversed1,0,len);
+	}
+
+	static char [] reverse(char [] a, int len)
+	{
+		char [] b = new char [len];
+		for (int i=0; i<len; i++)
+			b[i]=a[len-1-i];
+		return b;
+	}
+}
@@ -5,7 +5,7 @@ import java.math.*;
 
 public class Base
 {
-	public double position;
+	public long coordinate;
 	public char reference;
 	public char consensus;
 	public double A;
@@ -21,7 +21,7 @@ public class Base
 	
 	public Base()
 	{
-		position=-1;
+		coordinate=-1;
 		reference='X';
 		consensus='X';
 		A=0;
@@ -36,9 +36,9 @@ public class Base
 		entropy=-1;
 	}
 	
-	public Base(double p, char r, char c, double b1, double b2, double b3, double b4, double b5, double cv, double ent)
+	public Base(long p, char r, char c, double b1, double b2, double b3, double b4, double b5, double cv, double ent)
 	{
-		position=p;
+		coordinate=p;
 		reference=r;
 		consensus=c;
 		A=b1;
@@ -128,9 +128,9 @@ public class Base
 			return;
 		double errorRate = erNoHomopol;
 		boolean indel = false;
-		if (reference=='-' || consensus=='-' || Math.floor(position)!=position)
+		if (reference=='-' || consensus=='-' || Coordinate.isInsertion(coordinate))
 			indel = true;
-		if (Functions.isHomopolymeric((int)Math.floor(position-1),genome,indel))
+		if (Functions.isHomopolymeric(Coordinate.position(coordinate)-1,genome,indel))
 			errorRate = erHomopol;
 		
 		double pErrA = Functions.poissonError(A,coverage,errorRate);
@@ -0,0 +1,104 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+public class BaseSet
+{
+	// the bases sorted by coordinate, so a stretch of the genome is a slice of the arrays
+	public long [] coordinates;
+	public Base [] bases;
+	public int size;
+
+	public BaseSet(int capacity)
+	{
+		coordinates=new long [Math.max(capacity,16)];
+		bases=new Base [coordinates.length];
+		size=0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public Base base(int i)
+	{
+		return bases[i];
+	}
+
+	public int indexOf(long coordinate)
+	{
+		// as Arrays.binarySearch: the index, or -(insertion point)-1 when missing
+		return Arrays.binarySearch(coordinates,0,size,coordinate);
+	}
+
+	public Base get(long coordinate)
+	{
+		int i = indexOf(coordinate);
+		return (i>=0)?bases[i]:null;
+	}
+
+	public void put(Base b)
+	{
+		// bases added in coordinate order are appended, the others shift the tail
+		int i = size;
+		if (size>0 && coordinates[size-1]>=b.coordinate)
+		{
+			i = indexOf(b.coordinate);
+			if (i>=0)
+			{
+				bases[i]=b;
+				return;
+			}
+			i=-i-1;
+		}
+		if (size==coordinates.length)
+		{
+			coordinates=Arrays.copyOf(coordinates,2*size);
+			bases=Arrays.copyOf(bases,2*size);
+		}
+		System.arraycopy(coordinates,i,coordinates,i+1,size-i);
+		System.arraycopy(bases,i,bases,i+1,size-i);
+		coordinates[i]=b.coordinate;
+		bases[i]=b;
+		size++;
+	}
+
+	public void prune()
+	{
+		// drops the removed bases
+		int n = 0;
+		for (int i=0; i<size; i++)
+			if (!bases[i].removed)
+			{
+				coordinates[n]=coordinates[i];
+				bases[n++]=bases[i];
+			}
+		Arrays.fill(bases,n,size,null);
+		size=n;
+	}
+
+	public void retain(long from, long to)
+	{
+		// keeps the bases in [from,to]
+		int a = indexOf(from);
+		a=(a>=0)?a:-a-1;
+		int b = indexOf(to);
+		b=(b>=0)?b+1:-b-1;
+		b=Math.max(a,b);
+		System.arraycopy(coordinates,a,coordinates,0,b-a);
+		System.arraycopy(bases,a,bases,0,b-a);
+		Arrays.fill(bases,b-a,size,null);
+		size=b-a;
+	}
+
+	public long first()
+	{
+		return coordinates[0];
+	}
+
+	public long last()
+	{
+		return coordinates[size-1];
+	}
+}
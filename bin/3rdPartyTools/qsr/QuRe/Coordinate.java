@@ -0,0 +1,65 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+public class Coordinate
+{
+	// a column of the alignment to the reference: the 1-based reference position in the high bits
+	// and the rank of an insertion after that position in the low RANK_BITS (0 for the reference
+	// base itself). Coordinates compare as longs, insertions right after the base they follow
+	public static final int RANK_BITS = 16;
+	public static final int MAX_RANK = (1<<RANK_BITS)-1;
+
+	public static long of(int position, int rank)
+	{
+		return ((long)position<<RANK_BITS)|rank;
+	}
+
+	public static int position(long coordinate)
+	{
+		return (int)(coordinate>>>RANK_BITS);
+	}
+
+	public static int rank(long coordinate)
+	{
+		return (int)(coordinate&MAX_RANK);
+	}
+
+	public static boolean isInsertion(long coordinate)
+	{
+		return rank(coordinate)>0;
+	}
+
+	public static long from(double start)
+	{
+		// first coordinate at or after a location such as a read start
+		return of((int)Math.ceil(start),0);
+	}
+
+	public static long to(double stop)
+	{
+		// last coordinate at or before a location; insertions after an integer stop lie past it
+		if (Math.floor(stop)==stop)
+			return of((int)stop,0);
+		return of((int)Math.floor(stop),MAX_RANK);
+	}
+
+	public static double location(long coordinate)
+	{
+		// the position as the text output has always written it: the k-th insertion after a base
+		// sits at pos+1e-9+2e-9+...+k*1e-9, summed in double from float steps
+		double d = position(coordinate);
+		double f = (double)0.000000001f;
+		for (int k=rank(coordinate); k>0; k--)
+		{
+			d+=f;
+			f+=(double)0.000000001f;
+		}
+		return d;
+	}
+
+	public static String toString(long coordinate)
+	{
+		return Double.toString(location(coordinate));
+	}
+}
@@ -0,0 +1,193 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.nio.charset.*;
+
+public class FastaReader
+{
+	public static final byte [] READ_TABLE = buildTable("ACGTRYKMSWBDHVN");
+	public static final byte [] REFERENCE_TABLE = buildTable("ACGT");
+
+	public InputStream input;
+	public byte [] table;
+	public long length;
+	public long scanSize;
+	public int count;
+	public String name;
+	byte [] buffer;
+	int bufferPos;
+	int bufferEnd;
+	byte [] header;
+	int headerLength;
+	byte [] sequence;
+	int sequenceLength;
+	boolean lineStart;
+
+	public FastaReader(InputStream in, long l, byte [] t)
+	{
+		input=in;
+		length=l;
+		table=t;
+		scanSize=0;
+		count=0;
+		name=null;
+		buffer=new byte [1<<16];
+		bufferPos=0;
+		bufferEnd=0;
+		header=new byte [256];
+		headerLength=0;
+		sequence=new byte [1024];
+		sequenceLength=0;
+		lineStart=true;
+	}
+
+	public FastaReader(SequenceInput in, byte [] t)
+	{
+		this(in,in.length,t);
+	}
+
+	public static byte [] buildTable(String alphabet)
+	{
+		// maps every input byte to its upper-case IUPAC code, 0 means the byte is dropped
+		byte [] t = new byte [256];
+		for (int i=0; i<alphabet.length(); i++)
+		{
+			char c = alphabet.charAt(i);
+			t[c]=(byte)c;
+			t[Character.toLowerCase(c)]=(byte)c;
+		}
+		t['U']='T';
+		t['u']='T';
+		return t;
+	}
+
+	public static FastaReader open(SequenceInput in, byte [] t, int minQuality)
+	throws IOException
+	{
+		FastaReader fr = new FastaReader(in,t);
+		if (fr.fill()<0)
+			return fr;
+		int i = fr.bufferPos;
+		while (i<fr.bufferEnd && (fr.buffer[i]==' ' || fr.buffer[i]=='\t' || fr.buffer[i]=='\r' || fr.buffer[i]=='\n'))
+			i++;
+		if (i==fr.bufferEnd || fr.buffer[i]!='@')
+			return fr;
+		FastqReader fq = new FastqReader(in,in.length,t,minQuality);
+		fq.buffer=fr.buffer;
+		fq.bufferPos=fr.bufferPos;
+		fq.bufferEnd=fr.bufferEnd;
+		fq.scanSize=fr.scanSize;
+		return fq;
+	}
+
+	public long getPosition()
+	throws IOException
+	{
+		if (input instanceof SequenceInput)
+			return ((SequenceInput)input).getPosition();
+		return scanSize;
+	}
+
+	int fill()
+	throws IOException
+	{
+		int n = input.read(buffer,0,buffer.length);
+		if (n<=0)
+			return -1;
+		bufferPos=0;
+		bufferEnd=n;
+		scanSize+=n;
+		return n;
+	}
+
+	public boolean next()
+	throws IOException
+	{
+		headerLength=0;
+		sequenceLength=0;
+		while (true)
+		{
+			if (bufferPos==bufferEnd && fill()<0)
+				return false;
+			byte c = buffer[bufferPos++];
+			if (c=='>' && lineStart)
+				break;
+			lineStart = (c=='\n' || c=='\r');
+		}
+		while (true)
+		{
+			if (bufferPos==bufferEnd && fill()<0)
+				break;
+			int s = bufferPos;
+			while (bufferPos<bufferEnd && buffer[bufferPos]!='\n' && buffer[bufferPos]!='\r')
+				bufferPos++;
+			int n = bufferPos-s;
+			if (headerLength+n>header.length)
+				header=Arrays.copyOf(header,Math.max(header.length*2,headerLength+n));
+			System.arraycopy(buffer,s,header,headerLength,n);
+			headerLength+=n;
+			if (bufferPos<bufferEnd)
+				break;
+		}
+		name=new String(header,0,headerLength);
+		lineStart=false;
+		while (true)
+		{
+			if (bufferPos==bufferEnd && fill()<0)
+				break;
+			if (sequenceLength+(bufferEnd-bufferPos)>sequence.length)
+				sequence=Arrays.copyOf(sequence,Math.max(sequence.length*2,sequenceLength+(bufferEnd-bufferPos)));
+			byte [] b = buffer;
+			byte [] q = sequence;
+			byte [] t = table;
+			int p = bufferPos;
+			int e = bufferEnd;
+			int n = sequenceLength;
+			boolean ls = lineStart;
+			boolean stop = false;
+			while (p<e)
+			{
+				byte c = b[p];
+				if (c=='>' && ls)
+				{
+					stop=true;
+					break;
+				}
+				p++;
+				ls = (c=='\n' || c=='\r');
+				byte u = t[c&0xff];
+				if (u!=0)
+					q[n++]=u;
+			}
+			bufferPos=p;
+			sequenceLength=n;
+			lineStart=ls;
+			if (stop)
+				break;
+		}
+		count++;
+		return true;
+	}
+
+	public int getSequenceLength()
+	{
+		return sequenceLength;
+	}
+
+	public String getSequence()
+	{
+		return new String(sequence,0,sequenceLength,StandardCharsets.ISO_8859_1);
+	}
+
+	public Read nextRead()
+	throws IOException
+	{
+		if (!next())
+			return null;
+		Read r = new Read();
+		r.name=name;
+		r.idx=count-1;
+		r.sequence=getSequence();
+		return r;
+	}
+}
@@ -0,0 +1,126 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+public class FastqReader extends FastaReader
+{
+	public int minQuality;
+	public int qualityOffset;
+	public long trimmedBases;
+	public int discardedReads;
+	byte [] line;
+	int lineLength;
+	byte [] raw;
+	int rawLength;
+
+	public FastqReader(InputStream in, long l, byte [] t, int q)
+	{
+		super(in,l,t);
+		minQuality=q;
+		qualityOffset=33;
+		trimmedBases=0;
+		discardedReads=0;
+		line=new byte [1024];
+		lineLength=0;
+		raw=new byte [1024];
+		rawLength=0;
+	}
+
+	boolean readLine()
+	throws IOException
+	{
+		lineLength=0;
+		boolean any=false;
+		while (true)
+		{
+			if (bufferPos==bufferEnd && fill()<0)
+				break;
+			any=true;
+			int s = bufferPos;
+			while (bufferPos<bufferEnd && buffer[bufferPos]!='\n')
+				bufferPos++;
+			int n = bufferPos-s;
+			if (lineLength+n>line.length)
+				line=Arrays.copyOf(line,Math.max(line.length*2,lineLength+n));
+			System.arraycopy(buffer,s,line,lineLength,n);
+			lineLength+=n;
+			if (bufferPos<bufferEnd)
+			{
+				bufferPos++;
+				break;
+			}
+		}
+		if (lineLength>0 && line[lineLength-1]=='\r')
+			lineLength--;
+		return any;
+	}
+
+	public int trimPosition(byte [] qual, int len)
+	{
+		// bwa-style tail trimming: cut where the running sum of (minQuality - q) from the 3' end peaks
+		int sum = 0;
+		int max = 0;
+		int cut = len;
+		for (int i=len-1; i>=0; i--)
+		{
+			sum+=minQuality-((qual[i]&0xff)-qualityOffset);
+			if (sum<0)
+				break;
+			if (sum>max)
+			{
+				max=sum;
+				cut=i;
+			}
+		}
+		return cut;
+	}
+
+	public boolean next()
+	throws IOException
+	{
+		while (true)
+		{
+			headerLength=0;
+			sequenceLength=0;
+			do
+			{
+				if (!readLine())
+					return false;
+			}
+			while (lineLength==0 || line[0]!='@');
+			if (lineLength-1>header.length)
+				header=new byte [lineLength];
+			System.arraycopy(line,1,header,0,lineLength-1);
+			headerLength=lineLength-1;
+			readLine();
+			if (lineLength>raw.length)
+				raw=new byte [Math.max(raw.length*2,lineLength)];
+			System.arraycopy(line,0,raw,0,lineLength);
+			rawLength=lineLength;
+			readLine();
+			readLine();
+			int cut = rawLength;
+			if (minQuality>0)
+				cut=trimPosition(line,Math.min(rawLength,lineLength));
+			trimmedBases+=rawLength-cut;
+			if (cut>sequence.length)
+				sequence=new byte [Math.max(sequence.length*2,cut)];
+			int n = 0;
+			for (int i=0; i<cut; i++)
+			{
+				byte u = table[raw[i]&0xff];
+				if (u!=0)
+					sequence[n++]=u;
+			}
+			sequenceLength=n;
+			if (n==0)
+			{
+				discardedReads++;
+				continue;
+			}
+			name=new String(header,0,headerLength);
+			count++;
+			return true;
+		}
+	}
+}
@@ -8,6 +8,8 @@ import java.io.PrintStream;
 
 public class Functions
 {
+	public static ReferenceIndex reference = null;
+	
 	public static Vector<GlobalVariant> mergeGlobalVariantSet(Vector<GlobalVariant> b)
 	{
 		Vector<GlobalVariant> a = new Vector();
@@ -18,7 +20,7 @@ public class Functions
 			for (int k=0; k<a.size(); k++)
 			{
 				GlobalVariant d = a.get(k);
-				if (d.SNP.equals(c.SNP) || d.sequence.equals(c.sequence))
+				if (Arrays.equals(d.SNPs,c.SNPs) || d.sequence.equals(c.sequence))
 				{
 					d.frequency+=c.frequency;
 					found=true;
@@ -26,7 +28,7 @@ public class Functions
 				}
 			}
 			if (!found)
-				a.add(new GlobalVariant(c.SNP, c.sequence, c.frequency, c.stdevFreq));
+				a.add(new GlobalVariant(c.SNPs, c.sequence, c.frequency, c.stdevFreq));
 		}
 		return a;
 	}
@@ -40,19 +42,17 @@ public class Functions
 			reconstructedQuasispecies.get(i).frequency=100d*reconstructedQuasispecies.get(i).frequency/sumFrequencies;
 	}
 	
-	public static Vector<GlobalVariant> correct(Vector<GlobalVariant> gv, double start, double stop, String genome, double hErr, double nonhErr, int runs, int n_proc)
+	public static Vector<GlobalVariant> correct(Vector<GlobalVariant> gv, double start, double stop, String genome, double hErr, double nonhErr, int runs, WorkerPool pool)
+	throws Exception
 	{
 		LocalVariantSet lvs = new LocalVariantSet();
-		Hashtable<String,LocalVariant> h=new Hashtable();
+		Hashtable<SNP.Key,LocalVariant> h=new Hashtable();
 		Vector<LocalVariant> a=new Vector();
 		for (int i=0; i<gv.size(); i++)
 		{
-			String snpA="";
-			String snpO1="";
-			String snpO2="";
-			String snp=gv.get(i).SNP;
-			LocalVariant lv = new LocalVariant(snpA,snpO1,snpO2,snp,gv.get(i).frequency);
-			h.put(snp,lv);
+			long [] snp=gv.get(i).SNPs;
+			LocalVariant lv = new LocalVariant(SNP.NONE,SNP.NONE,SNP.NONE,snp,gv.get(i).frequency);
+			h.put(new SNP.Key(snp),lv);
 		}
 		lvs.lvsH=h;
 		Object [] keys = lvs.lvsH.keySet().toArray();
@@ -74,12 +74,12 @@ public class Functions
 		};
 		Collections.sort(a,comparatorFrequencies);
 		lvs.lvsA=a;
-		lvs.correctLocalVariantSetParallel(start, stop, genome, hErr, nonhErr, runs, n_proc);
+		lvs.correctLocalVariantSetParallel(start, stop, genome, hErr, nonhErr, runs, pool);
 		Collections.sort(lvs.lvsA,comparatorFrequencies);
 		Vector<GlobalVariant> gvsNew = new Vector();
 		for (int i=0; i<lvs.lvsA.size(); i++)
 		{
-			GlobalVariant g = new GlobalVariant(lvs.lvsA.get(i).SNP, "none", lvs.lvsA.get(i).frequency, -1);
+			GlobalVariant g = new GlobalVariant(lvs.lvsA.get(i).SNPs, "none", lvs.lvsA.get(i).frequency, -1);
 			g.setSequence(genome, start, stop);
 			gvsNew.add(g);
 			
@@ -102,8 +102,8 @@ public class Functions
 			double dist = lv.get(i).distance(clusterSet.get(index));
 			if (dist!=0)
 			{
-				String snp_differences = lv.get(i).snpDifferences(clusterSet.get(index));
-				//System.out.println("indice="+i+" dist="+dist+" diffLength="+snp_differences.split(",").length);
+				long [] snp_differences = lv.get(i).snpDifferences(clusterSet.get(index));
+				//System.out.println("indice="+i+" dist="+dist+" diffLength="+snp_differences.length);
 				double errorRate = localErrorProbability(snp_differences, genome, hErr, nonhErr);
 				double newlength = length + lv.get(i).lengthUpdate(clusterSet.get(index));
 				double prob = Math.max(Double.MIN_VALUE,Functions.poissonError(dist, newlength, errorRate));
@@ -129,7 +129,7 @@ public class Functions
 		for (int i=0; i<num; i++)
 		{
 			//int rnd = (int)(size*Math.pow(Math.random(),Math.exp(1)));
-			int rnd = (int)(Math.floor(size*Math.random()));
+			int rnd = (int)(Math.floor(size*Rng.random()));
 			int ind = result.indexOf(rnd);
 			if (ind!=-1)
 				result.remove(ind);
@@ -137,7 +137,7 @@ public class Functions
 				result.add(rnd);
 		}
 		if (result.isEmpty())
-			result.add((int)(Math.floor(size*Math.random())));
+			result.add((int)(Math.floor(size*Rng.random())));
 		Collections.sort(result);
 		return result;
 	}
@@ -150,7 +150,7 @@ public class Functions
 		do
 		{
 			k++;
-			p*=Math.random();
+			p*=Rng.random();
 		}
 		while(p>L);
 		return k-1;
@@ -172,20 +172,15 @@ public class Functions
 		return prob;
 	}
 	
-	public static double localErrorProbability(String snp_differences, String genome, double hErr, double nonhErr)
+	public static double localErrorProbability(long [] snp_differences, String genome, double hErr, double nonhErr)
 	{
-		if (snp_differences.startsWith(","))
-			snp_differences = snp_differences.substring(1);
-		String [] snp_array = snp_differences.split(",");
 		double prob=0;
 		double tot=0;
-		for (int i=0; i<snp_array.length; i++)
+		for (int i=0; i<snp_differences.length; i++)
 		{
-			String [] single_snp = snp_array[i].split("_");
-			boolean indel = false;
-			if (single_snp[2].equals("-") || single_snp[0].equals("-"))
-				indel = true;
-			if (isHomopolymeric((int)(Double.parseDouble(single_snp[1])-1),genome,indel))
+			long snp = snp_differences[i];
+			boolean indel = SNP.isIndel(snp);
+			if (isHomopolymeric(SNP.position(snp)-1,genome,indel))
 			{
 				
 				prob+=hErr;
@@ -200,6 +195,9 @@ public class Functions
 	
 	public static boolean isHomopolymeric(int position, String genome, boolean indel)
 	{
+		ReferenceIndex r = reference;
+		if (r!=null && genome==r.sequence && position>=0 && position<genome.length())
+			return r.isHomopolymeric(position,indel);
 		int start = Math.max(0,position-2);
 		int stop = Math.min(genome.length(),position+3);
 		if (indel)
@@ -242,7 +240,7 @@ public class Functions
 		int split=s.length()/2;
 		String temp1=shuffle(s.substring(0,split));
 		String temp2=shuffle(s.substring(split));
-		if (Math.random() > 0.5) 
+		if (Rng.random() > 0.5) 
 	    		return temp1 + temp2;
 		else 
 	    		return temp2 + temp1;
@@ -260,6 +258,48 @@ public class Functions
 		return p;
 	}
 	
+	public static int [] cumulativeCounts (Vector<Read> p)
+	{
+		// running totals of the read multiplicities, so that the i-th of all (uncollapsed) reads
+		// can be found with readAt
+		int [] c = new int [p.size()];
+		int total = 0;
+		for (int i=0; i<p.size(); i++)
+		{
+			total+=p.get(i).count;
+			c[i]=total;
+		}
+		return c;
+	}
+	
+	public static int readAt (int [] cumulative, int i)
+	{
+		int lo = 0;
+		int hi = cumulative.length-1;
+		while (lo<hi)
+		{
+			int mid = (lo+hi)>>>1;
+			if (cumulative[mid]>i)
+				hi=mid;
+			else
+				lo=mid+1;
+		}
+		return lo;
+	}
+	
+	public static double [] expand (double [] a, Vector<Read> p)
+	{
+		// repeats each per-read value by the multiplicity of the read
+		int total = 0;
+		for (int i=0; i<p.size(); i++)
+			total+=p.get(i).count;
+		double [] b = new double [total];
+		for (int i=0, k=0; i<a.length; i++)
+			for (int j=0; j<p.get(i).count; j++)
+				b[k++]=a[i];
+		return b;
+	}
+	
 	public static double average (double [] a)
 	{
 		double avg = 0;
@@ -371,103 +411,156 @@ public class Functions
 		return min;
 	}
 	
+	static final String COMPLEMENTS = "ATCGRYKMSSWWBVDHNN";
+	static final char [] COMPLEMENT = complementTable();
+	
+	static char [] complementTable()
+	{
+		// IUPAC complements of the upper-case codes; any other character is kept as it is
+		char [] t = new char [Character.MAX_VALUE+1];
+		for (int c=0; c<t.length; c++)
+			t[c]=(char)c;
+		for (int i=0; i<COMPLEMENTS.length(); i+=2)
+		{
+			t[COMPLEMENTS.charAt(i)]=COMPLEMENTS.charAt(i+1);
+			t[COMPLEMENTS.charAt(i+1)]=COMPLEMENTS.charAt(i);
+		}
+		return t;
+	}
+	
 	public static String reverseComplement (String s)
 	{
-		String rev = s;
-		StringBuffer sb = new StringBuffer(rev);
-		sb.reverse();
-		rev = sb.toString();
-		rev = rev.replaceAll("A","_01_");
-		rev = rev.replaceAll("C","_02_");
-		rev = rev.replaceAll("G","_03_");
-		rev = rev.replaceAll("T","_04_");
-		rev = rev.replaceAll("R","_05_");
-		rev = rev.replaceAll("Y","_06_");
-		rev = rev.replaceAll("K","_07_");
-		rev = rev.replaceAll("M","_08_");
-		rev = rev.replaceAll("S","_09_");
-		rev = rev.replaceAll("W","_10_");
-		rev = rev.replaceAll("B","_11_");
-		rev = rev.replaceAll("D","_12_");
-		rev = rev.replaceAll("H","_13_");
-		rev = rev.replaceAll("V","_14_");
-		rev = rev.replaceAll("N","_15_");
-		rev = rev.replaceAll("_01_","T");
-		rev = rev.replaceAll("_02_","G");
-		rev = rev.replaceAll("_03_","C");
-		rev = rev.replaceAll("_04_","A");
-		rev = rev.replaceAll("_05_","Y");
-		rev = rev.replaceAll("_06_","R");
-		rev = rev.replaceAll("_07_","M");
-		rev = rev.replaceAll("_08_","K");
-		rev = rev.replaceAll("_09_","S");
-		rev = rev.replaceAll("_10_","W");
-		rev = rev.replaceAll("_11_","V");
-		rev = rev.replaceAll("_12_","H");
-		rev = rev.replaceAll("_13_","D");
-		rev = rev.replaceAll("_14_","B");
-		rev = rev.replaceAll("_15_","N");
-		return rev;
+		int n = s.length();
+		char [] rev = new char [n];
+		for (int i=0; i<n; i++)
+			rev[n-1-i]=COMPLEMENT[s.charAt(i)];
+		return new String(rev);
 	}
 	
-	public static Integer [] SBLAT (Hashtable h, String query, int kmer)
+	public static void SBLAT (KmerIndex h, String query, int kmer, SeedHits hits)
 	{
-		int index = 0;
+		// rolls the forward and reverse-complement 2-bit codes across the read in one pass;
+		// reverse hits are recorded with their offset on the reverse-complemented read
+		hits.clear();
 		int k = kmer;
-		LinkedList<Integer> positions = new LinkedList();
-		while((index+k)<query.length())
+		int length = query.length();
+		int shift = 2*(k-1);
+		long mask = h.mask;
+		long fwd = 0;
+		long rwd = 0;
+		int valid = 0;
+		int [] offsets = h.offsets;
+		int [] positions = h.positions;
+		for (int i=0; i<length; i++)
 		{
-			String qkmer = query.substring(index,index+k);
-			if (h.get(qkmer)!=null)
+			int c = KmerIndex.code(query.charAt(i));
+			if (c<0)
 			{
-				LinkedList<Integer> list = (LinkedList)(h.get(qkmer));
-				for (int i=0; i<list.size(); i++)
-				{
-					positions.add(list.get(i));
-				}
+				valid=0;
+				continue;
+			}
+			fwd=((fwd<<2)|c)&mask;
+			rwd=(rwd>>>2)|((long)(3-c)<<shift);
+			if (++valid<k)
+				continue;
+			if (i+1<length)
+			{
+				int slot = h.slot(fwd);
+				if (slot>=0 && offsets[slot]<offsets[slot+1])
+					hits.addFwd(positions,offsets[slot],offsets[slot+1],i-k+1);
+			}
+			if (i>=k)
+			{
+				int slot = h.slot(rwd);
+				if (slot>=0 && offsets[slot]<offsets[slot+1])
+					hits.addRwd(positions,offsets[slot],offsets[slot+1],length-1-i);
 			}
-			index++;
 		}
-		Integer [] result = positions.toArray(new Integer[0]);
-		return result;
 	}
 	
-	public static int getMappingPosition (Integer [] array)
+	public static final int DIAGONAL_BIN_SHIFT = 4;
+	public static final int MIN_SEED_VOTES = 2;
+	public static final double MIN_SEED_DENSITY = 0.02d;
+
+	public static void getMappingPosition (SeedHits seeds, int queryLength, int genomeLength)
+	{
+		seeds.fwdMapPos=voteDiagonals(seeds,seeds.fwdPositions,seeds.fwdOffsets,seeds.fwdCount,queryLength,genomeLength);
+		seeds.fwdVotes=seeds.votes;
+		seeds.fwdConfidence=seeds.confidence;
+		seeds.fwdDiagonal=seeds.diagonal;
+		seeds.fwdSpread=seeds.spread;
+		seeds.rwdMapPos=voteDiagonals(seeds,seeds.rwdPositions,seeds.rwdOffsets,seeds.rwdCount,queryLength,genomeLength);
+		seeds.rwdVotes=seeds.votes;
+		seeds.rwdConfidence=seeds.confidence;
+		seeds.rwdDiagonal=seeds.diagonal;
+		seeds.rwdSpread=seeds.spread;
+	}
+	
+	public static boolean isUnmappable (SeedHits seeds, int queryLength, int kmer)
 	{
-		if (array==null || array.length==0)
+		// genuine reads, even divergent ones, put a fair share of their k-mers on one diagonal of
+		// one strand; contaminant and adapter reads only collect scattered chance hits
+		int minVotes = Math.max(MIN_SEED_VOTES,(int)Math.ceil(MIN_SEED_DENSITY*(queryLength-kmer+1)));
+		return Math.max(seeds.fwdVotes,seeds.rwdVotes)<minVotes;
+	}
+	
+	public static int voteDiagonals (SeedHits seeds, int [] positions, int [] offsets, int count, int queryLength, int genomeLength)
+	{
+		// every seed votes for the diagonal (reference position - read offset) it lies on; diagonals are
+		// binned and the best window of two neighbouring bins wins, so small indels stay in one window
+		seeds.votes=0;
+		seeds.confidence=0;
+		seeds.diagonal=0;
+		seeds.spread=0;
+		if (count==0)
 			return -1;
-		double min = min(array);
-		double max = max(array);
-		double step = Math.sqrt(array.length);
-		//double step = 3.5d*stdev(array)/Math.cbrt(array.length);
-		int [] bins = new int [(int)((max-min)/step)];
-		for (int i=0; i<array.length; i++)
+		int [] bins = seeds.getBins(((genomeLength+queryLength)>>DIAGONAL_BIN_SHIFT)+2);
+		int best = -1;
+		int bestVotes = 0;
+		for (int i=0; i<count; i++)
 		{
-			int currStep = (int)(min);
-			for (int j=0; j<bins.length; j++)
+			int b = (positions[i]-offsets[i]+queryLength)>>DIAGONAL_BIN_SHIFT;
+			int v = ++bins[b];
+			if (v+bins[b+1]>bestVotes)
 			{
-				if (array[i]<currStep)
-				{
-					bins[j]++;
-					break;
-				}
-				currStep+=step;
+				bestVotes=v+bins[b+1];
+				best=b;
+			}
+			if (b>0 && v+bins[b-1]>bestVotes)
+			{
+				bestVotes=v+bins[b-1];
+				best=b-1;
 			}
 		}
-		int maxFreq = -1;
-		int result = -1;
-		int currStep = (int)(min);
-		for (int j=0; j<bins.length; j++)
+		int secondVotes = 0;
+		long sum = 0;
+		int n = 0;
+		int lowest = Integer.MAX_VALUE;
+		int highest = Integer.MIN_VALUE;
+		for (int i=0; i<count; i++)
 		{
-			if (bins[j]>maxFreq)
+			int d = positions[i]-offsets[i];
+			int b = (d+queryLength)>>DIAGONAL_BIN_SHIFT;
+			if (b==best || b==best+1)
 			{
-				maxFreq=bins[j];
-				result=currStep;
+				sum+=d;
+				n++;
+				lowest=Math.min(lowest,d);
+				highest=Math.max(highest,d);
 			}
-			currStep+=step;
+			else if (b<best-1 || b>best+2)
+				secondVotes=Math.max(secondVotes,bins[b]+Math.max(bins[b+1],(b>0)?bins[b-1]:0));
 		}
-		//result = (int)(Math.round(((double)(result)-step/2d)));
-		return result;
+		for (int i=0; i<count; i++)
+			bins[(positions[i]-offsets[i]+queryLength)>>DIAGONAL_BIN_SHIFT]=0;
+		seeds.votes=bestVotes;
+		seeds.confidence=(double)bestVotes/(double)(bestVotes+secondVotes);
+		if (bestVotes<MIN_SEED_VOTES)
+			return -1;
+		// report the centre of the read on the winning diagonal
+		seeds.diagonal=(int)(Math.round((double)sum/(double)n));
+		seeds.spread=highest-lowest;
+		return Math.max(0,Math.min(genomeLength,seeds.diagonal+queryLength/2));
 	}
 	
 	public static double zetaStandardProbability(double z)
@@ -5,60 +5,58 @@ import java.math.*;
 
 public class GlobalVariant
 {
-	public String SNP;
+	public long [] SNPs;
 	public String sequence;
 	public double frequency;
 	public double stdevFreq;
 	
 	public GlobalVariant()
 	{
-		SNP=null;
+		SNPs=null;
 		sequence=null;
 		frequency=-1;
 		stdevFreq=-1;
 	}
-	public GlobalVariant(String snp, String seq, double f, double s)
+	public GlobalVariant(long [] snp, String seq, double f, double s)
 	{
-		SNP=snp;
+		SNPs=snp;
 		sequence=seq;
 		frequency=f;
 		stdevFreq=s;
 	}
 	public void setSequence(String refGenome, double start, double stop)
 	{
-		HashMap<Double,Base> bs = new HashMap(refGenome.length());
+		// the reference bases of [start,stop] with the variations laid over them in coordinate
+		// order, the last one listed at a coordinate winning; deleted bases drop out with the gaps
+		long [] snps = (SNPs!=null)?SNPs:SNP.NONE;
+		StringBuilder s = new StringBuilder();
+		int j = 0;
 		for (int i=(int)(start-1); i<(int)(stop); i++)
 		{
-			Base b =  new Base();
-			b.reference=refGenome.charAt(i);
-			b.position=(double)(i+1);
-			bs.put(b.position,b);
+			long coordinate = Coordinate.of(i+1,0);
+			while (j<snps.length && SNP.coordinate(snps[j])<coordinate)
+				j=append(s,snps,j);
+			if (j<snps.length && SNP.coordinate(snps[j])==coordinate)
+				j=append(s,snps,j);
+			else
+				append(s,refGenome.charAt(i));
 		}
-		if (SNP!=null && SNP.length()>0)
-		{
-			if (SNP.startsWith(","))
-				SNP=SNP.substring(1);
-			if (!SNP.equals(""))
-			{
-				String [] snpA = SNP.split(",");
-				for (int i=0; i<snpA.length; i++)
-				{
-					String [] snp = snpA[i].split("_");
-					Base b =  new Base();
-					b.reference=snp[2].charAt(0);
-					b.position=Double.parseDouble(snp[1]);
-					bs.put(b.position,b);
-				}
-			}
-		}
-		String s="";
-		Object [] key = bs.keySet().toArray();
-		Arrays.sort(key);
-		for   (int i=0; i<key.length; i++)
-		{
-			char c = bs.get(key[i]).reference;
-			s+=c;
-		}
-		sequence=s.replaceAll("-","");
+		while (j<snps.length)
+			j=append(s,snps,j);
+		sequence=s.toString();
+	}
+	static int append(StringBuilder s, long [] snps, int j)
+	{
+		// the base of the last variation at the coordinate of snps[j]; returns the index past them
+		long coordinate = SNP.coordinate(snps[j]);
+		while (j+1<snps.length && SNP.coordinate(snps[j+1])==coordinate)
+			j++;
+		append(s,SNP.base(snps[j]));
+		return j+1;
+	}
+	static void append(StringBuilder s, char c)
+	{
+		if (c!='-')
+			s.append(c);
 	}
 }
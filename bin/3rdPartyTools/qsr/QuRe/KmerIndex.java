@@ -0,0 +1,179 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+public class KmerIndex
+{
+	public static final int DIRECT_MAX_K = 12;
+	public static final byte [] CODE = buildCodes();
+
+	public int k;
+	public long mask;
+	public int genomeLength;
+	public int [] offsets;
+	public int [] positions;
+	public long [] slotKeys;
+	public int slotMask;
+
+	public KmerIndex()
+	{
+		k=-1;
+		mask=0;
+		genomeLength=0;
+		offsets=null;
+		positions=null;
+		slotKeys=null;
+		slotMask=0;
+	}
+
+	public KmerIndex(int kmer, int length, int [] o, int [] p, long [] keys)
+	{
+		k=kmer;
+		mask=(1L<<(2*k))-1;
+		genomeLength=length;
+		offsets=o;
+		positions=p;
+		slotKeys=keys;
+		slotMask=(keys==null)?0:keys.length-1;
+	}
+
+	public KmerIndex(String genome, int kmer)
+	{
+		if (kmer<1 || kmer>31)
+			throw new IllegalArgumentException("k-mer size must be between 1 and 31: "+kmer);
+		k=kmer;
+		mask=(1L<<(2*k))-1;
+		genomeLength=genome.length();
+		int slots;
+		if (k<=DIRECT_MAX_K)
+		{
+			slotKeys=null;
+			slots=1<<(2*k);
+		}
+		else
+		{
+			slots=Integer.highestOneBit(Math.max(2,genomeLength))<<1;
+			slotKeys=new long [slots];
+			Arrays.fill(slotKeys,-1L);
+			slotMask=slots-1;
+		}
+		offsets=new int [slots+1];
+		long code = 0;
+		int valid = 0;
+		int total = 0;
+		for (int i=0; i+1<genomeLength; i++)
+		{
+			int c = code(genome.charAt(i));
+			if (c<0)
+			{
+				valid=0;
+				continue;
+			}
+			code=((code<<2)|c)&mask;
+			if (++valid>=k)
+			{
+				offsets[insert(code)+1]++;
+				total++;
+			}
+		}
+		for (int i=0; i<slots; i++)
+			offsets[i+1]+=offsets[i];
+		positions=new int [total];
+		int [] fill = Arrays.copyOf(offsets,slots);
+		code=0;
+		valid=0;
+		for (int i=0; i+1<genomeLength; i++)
+		{
+			int c = code(genome.charAt(i));
+			if (c<0)
+			{
+				valid=0;
+				continue;
+			}
+			code=((code<<2)|c)&mask;
+			if (++valid>=k)
+				positions[fill[slot(code)]++]=i-k+1;
+		}
+	}
+
+	static byte [] buildCodes()
+	{
+		byte [] t = new byte [256];
+		Arrays.fill(t,(byte)-1);
+		t['A']=0;
+		t['C']=1;
+		t['G']=2;
+		t['T']=3;
+		t['a']=0;
+		t['c']=1;
+		t['g']=2;
+		t['t']=3;
+		return t;
+	}
+
+	public static int code(char c)
+	{
+		if (c>255)
+			return -1;
+		return CODE[c];
+	}
+
+	public static long encode(String s, int start, int kmer)
+	{
+		long code = 0;
+		for (int i=start; i<start+kmer; i++)
+		{
+			int c = code(s.charAt(i));
+			if (c<0)
+				return -1;
+			code=(code<<2)|c;
+		}
+		return code;
+	}
+
+	int insert(long code)
+	{
+		if (slotKeys==null)
+			return (int)code;
+		int h = hash(code)&slotMask;
+		while (slotKeys[h]!=-1L && slotKeys[h]!=code)
+			h=(h+1)&slotMask;
+		slotKeys[h]=code;
+		return h;
+	}
+
+	static int hash(long code)
+	{
+		long h = code*0x9E3779B97F4A7C15L;
+		return (int)(h^(h>>>32));
+	}
+
+	public int slot(long code)
+	{
+		if (code<0)
+			return -1;
+		if (slotKeys==null)
+			return (int)code;
+		int h = hash(code)&slotMask;
+		while (slotKeys[h]!=-1L)
+		{
+			if (slotKeys[h]==code)
+				return h;
+			h=(h+1)&slotMask;
+		}
+		return -1;
+	}
+
+	public int count(long code)
+	{
+		int s = slot(code);
+		if (s<0)
+			return 0;
+		return offsets[s+1]-offsets[s];
+	}
+
+	public int size()
+	{
+		return positions.length;
+	}
+}
@@ -5,10 +5,10 @@ import java.math.*;
 
 public class LocalVariant
 {
-	public String amplSNP;
-	public String overlSNP1;
-	public String overlSNP2;
-	public String SNP;
+	public long [] amplSNP;
+	public long [] overlSNP1;
+	public long [] overlSNP2;
+	public long [] SNPs;
 	public double frequency;
 	
 	public LocalVariant()
@@ -16,20 +16,20 @@ public class LocalVariant
 		amplSNP=null;
 		overlSNP1=null;
 		overlSNP2=null;
-		SNP=null;
+		SNPs=null;
 		frequency=-1;
 	}
-	public LocalVariant(String asnp, String osnp1, String osnp2, String snp, double f)
+	public LocalVariant(long [] asnp, long [] osnp1, long [] osnp2, long [] snp, double f)
 	{
 		amplSNP=asnp;
 		overlSNP1=osnp1;
 		overlSNP2=osnp2;
-		SNP=snp;
+		SNPs=snp;
 		frequency=f;
 	}
 	public boolean overlaps(LocalVariant b)
 	{
-		return (this.overlSNP2.equals(b.overlSNP1));
+		return Arrays.equals(this.overlSNP2,b.overlSNP1);
 	}
 	public int searchMateFwd(LocalVariantSet lvs)
 	{
@@ -47,67 +47,36 @@ public class LocalVariant
 	}
 	public double distance(LocalVariant b)
 	{
-		double distance = 0;
-		String [] SNP1 = this.SNP.split(",");
-		String [] SNP2 = b.SNP.split(",");
-		LinkedList l1 = new LinkedList(Arrays.asList(SNP1));
-		LinkedList l2 = new LinkedList(Arrays.asList(SNP2));
-		for (int i=0; i<SNP1.length; i++)
-			if (!l2.contains(SNP1[i]))
-				distance++;
-		for (int i=0; i<SNP2.length; i++)
-			if (!l1.contains(SNP2[i]))
-				distance++;
-		return distance;
+		return SNP.distance(this.SNPs,b.SNPs);
 	}
-	public String snpDifferences(LocalVariant b)
+	public long [] snpDifferences(LocalVariant b)
 	{
-		String diff = "";
-		String [] SNP1 = this.SNP.split(",");
-		String [] SNP2 = b.SNP.split(",");
-		LinkedList l1 = new LinkedList(Arrays.asList(SNP1));
-		LinkedList l2 = new LinkedList(Arrays.asList(SNP2));
-		for (int i=0; i<SNP1.length; i++)
-			if (!l2.contains(SNP1[i]))
-				diff+=SNP1[i]+",";
-		for (int i=0; i<SNP2.length; i++)
-			if (!l1.contains(SNP2[i]))
-				diff+=SNP2[i]+",";
-		return diff;
+		return SNP.differences(this.SNPs,b.SNPs);
 	}
 	public double lengthUpdate(LocalVariant b)
 	{
-		String [] SNP1 = this.SNP.split(",");
-		String [] SNP2 = b.SNP.split(",");
-		LinkedList l1 = new LinkedList(Arrays.asList(SNP1));
-		LinkedList l2 = new LinkedList(Arrays.asList(SNP2));
-		LinkedList<String> dels = new LinkedList();
-		LinkedList<String> inss = new LinkedList();
-		
-		for (int i=0; i<SNP1.length; i++)
-			if (SNP1[i].indexOf("_-")!=-1)
-				if (!dels.contains(SNP1[i]))
-					dels.add(SNP1[i]);
-		for (int i=0; i<SNP2.length; i++)
-			if (SNP2[i].indexOf("_-")!=-1)
-				if (!dels.contains(SNP2[i]))
-					dels.add(SNP2[i]);
-		for (int i=0; i<SNP1.length; i++)
-			if (SNP1[i].indexOf("-_")!=-1)
-				if (!inss.contains(SNP1[i]))
-					inss.add(SNP1[i]);
-		for (int i=0; i<SNP2.length; i++)
-			if (SNP2[i].indexOf("-_")!=-1)
-				if (!inss.contains(SNP2[i]))
-					inss.add(SNP2[i]);
-		double plus = inss.size();
+		// distinct insertions of either variant lengthen the region, distinct deletions shared by
+		// both shorten it
+		double plus = 0;
 		double minus = 0;
-		for (int i=0; i<dels.size(); i++)
+		for (int i=0; i<this.SNPs.length; i++)
 		{
-			String s = dels.get(i);
-			if (this.SNP.indexOf(s)!=-1 && b.SNP.indexOf(s)!=-1)
+			long s = this.SNPs[i];
+			if (i>0 && this.SNPs[i-1]==s)
+				continue;
+			if (SNP.reference(s)=='-')
+				plus++;
+			if (SNP.base(s)=='-' && SNP.contains(b.SNPs,s))
 				minus++;
 		}
+		for (int i=0; i<b.SNPs.length; i++)
+		{
+			long s = b.SNPs[i];
+			if (i>0 && b.SNPs[i-1]==s)
+				continue;
+			if (SNP.reference(s)=='-' && !SNP.contains(this.SNPs,s))
+				plus++;
+		}
 		double res = plus - minus;
 		return res;
 	}
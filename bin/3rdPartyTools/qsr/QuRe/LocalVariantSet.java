@@ -5,7 +5,11 @@ import java.math.*;
 
 public class LocalVariantSet
 {
-	public Hashtable<String,LocalVariant> lvsH;
+	// cluster sets proposed from the same best set and scored together (-proposals). It does
+	// not depend on the number of threads, so the search takes the same path for any -threads
+	public static int proposals = 32;
+
+	public Hashtable<SNP.Key,LocalVariant> lvsH;
 	public Vector<LocalVariant> lvsA;
 	
 	public LocalVariantSet()
@@ -13,7 +17,7 @@ public class LocalVariantSet
 		lvsH=null;
 		lvsA=null;
 	}
-	public LocalVariantSet(Vector<Read> p, double start, double middle1, double middle2, double stop, String genome, double hErr, double nonhErr, int n_proc)
+	public LocalVariantSet(Vector<Read> p, double start, double middle1, double middle2, double stop, String genome, double hErr, double nonhErr, WorkerPool pool)
 	{
 		Comparator<LocalVariant> comparatorFrequencies = new Comparator<LocalVariant>()
 		{
@@ -32,20 +36,20 @@ public class LocalVariantSet
 			Read r = p.get(i);
 			if (r.spans(start,stop))
 			{
-				String snpA=r.getSNPString(middle1+1, middle2-1);
-				String snpO1=r.getSNPString(start, middle1);
-				String snpO2=r.getSNPString(middle2, stop);
-				String snp=r.getSNPString(start, stop);
-				if (lvsH.get(snp)==null)
+				long [] snp=r.getSNPs(start, stop);
+				SNP.Key key=new SNP.Key(snp);
+				if (lvsH.get(key)==null)
 				{
-					LocalVariant lv = new LocalVariant(snpA,snpO1,snpO2,snp,1);
-					lvsH.put(snp,lv);
+					long [] snpA=r.getSNPs(middle1+1, middle2-1);
+					long [] snpO1=r.getSNPs(start, middle1);
+					long [] snpO2=r.getSNPs(middle2, stop);
+					LocalVariant lv = new LocalVariant(snpA,snpO1,snpO2,snp,r.count);
+					lvsH.put(key,lv);
 				}
 				else
 				{
-					LocalVariant lv = lvsH.get(snp);
-					lv.frequency=lv.frequency+1;
-					lvsH.put(snp,lv);
+					LocalVariant lv = lvsH.get(key);
+					lv.frequency=lv.frequency+r.count;
 				}
 			}
 		}
@@ -67,7 +71,7 @@ public class LocalVariantSet
 			lvsA.add(lv);
 		}
 		Collections.sort(lvsA,comparatorFrequencies);
-		this.correctLocalVariantSetParallel(start, stop, genome, hErr, nonhErr, 250, n_proc);
+		this.correctLocalVariantSetParallel(start, stop, genome, hErr, nonhErr, 250, pool);
 		*/
 		
 		keys = lvsH.keySet().toArray();
@@ -82,7 +86,6 @@ public class LocalVariantSet
 		{
 			LocalVariant lv = lvsH.get(keys[i]);
 			lv.frequency = 100*lv.frequency/tot;
-			lvsH.put(lv.SNP,lv);
 			lvsA.add(lv);
 		}
 		Collections.sort(lvsA,comparatorFrequencies);
@@ -103,7 +106,8 @@ public class LocalVariantSet
 		}
 	}
 	
-	public void correctLocalVariantSetParallel(double start, double stop, String genome, double hErr, double nonhErr, int runs, int n_proc)
+	public void correctLocalVariantSetParallel(double start, double stop, String genome, double hErr, double nonhErr, int runs, WorkerPool pool)
+	throws Exception
 	{
 		Vector<Integer> bestClusterSet = new Vector();
 		LinkedList<Vector<Integer>> allClusters = new LinkedList();
@@ -126,64 +130,39 @@ public class LocalVariantSet
 		}		
 		*/
 		
+		// each round proposes 'proposals' cluster sets from the current best, scores them
+		// on the pool and keeps the best before proposing the next round
 		int i=0;
-		Thread [] thread_list = new Thread [n_proc];
-		ClusterSet [] csa = new ClusterSet [n_proc];
 		while(i<runs)
 		{
 			String perc = (Math.round(100f*((float)(i))/((float)(runs))))+"% ";
 			System.out.print(perc);
-			if (i==0)
-				for (int j=0; j<n_proc; j++)
-				{
-					Vector<Integer> clusterIndices = Functions.proposeClusterSet(bestClusterSet,lvsA.size());
-					ClusterSet cs = new ClusterSet(clusterIndices, lvsA, (stop-start), genome, hErr, nonhErr);
-					csa[j] = cs;
-					Runnable runnable = new correctLocalVariantSetThread(csa[j]);
-					thread_list[j] = new Thread(runnable);
-					thread_list[j].start();
-					i++;
-				}
-			else
+			final ClusterSet [] csa = new ClusterSet [Math.min(proposals,runs-i)];
+			for (int j=0; j<csa.length; j++)
 			{
-				int j=0;
-				while(thread_list[j].isAlive())
+				Vector<Integer> clusterIndices = Functions.proposeClusterSet(bestClusterSet,lvsA.size());
+				csa[j] = new ClusterSet(clusterIndices, lvsA, (stop-start), genome, hErr, nonhErr);
+			}
+			pool.run(csa.length,1,new WorkerPool.Task()
+			{
+				public void run(int from, int to, int slot)
 				{
-					j++;
-					j=j%n_proc;
+					for (int k=from; k<to; k++)
+						new correctLocalVariantSetThread(csa[k]).run();
 				}
+			},false);
+			for (int j=0; j<csa.length; j++)
+			{
 				if (csa[j].posteriorLikelihood<bestPosteriorLikelihood)
 				{
 					bestClusterSet=csa[j].clusterSet;
 					bestPosteriorLikelihood=csa[j].posteriorLikelihood;
 				}
-				Vector<Integer> clusterIndices = Functions.proposeClusterSet(bestClusterSet,lvsA.size());
-				ClusterSet cs = new ClusterSet(clusterIndices, lvsA, (stop-start), genome, hErr, nonhErr);
-				csa[j] = cs;
-				Runnable runnable = new correctLocalVariantSetThread(csa[j]);
-				thread_list[j] = new Thread(runnable);
-				thread_list[j].start();
-				i++;
 			}
+			i+=csa.length;
 			for (int o=0; o<perc.length(); o++)
 				System.out.print("\b");
 		}
-		int j=0;
-		while(j<n_proc)
-		{
-			if (!thread_list[j].isAlive())
-				j++;
-		}
-		j=0;
-		while(j<n_proc)
-		{
-			if (csa[j].posteriorLikelihood<bestPosteriorLikelihood)
-			{
-				bestClusterSet=csa[j].clusterSet;
-				bestPosteriorLikelihood=csa[j].posteriorLikelihood;
-			}	
-			j++;
-		}
 		System.out.println("100%");
 		
 		System.out.println("\t\tbest BIC = "+Functions.roundToDecimals(bestPosteriorLikelihood,2));
@@ -198,14 +177,14 @@ public class LocalVariantSet
 		for (int l=0; l<lvsA.size(); l++)
 		{
 			LocalVariant lv = lvsA.get(l);
-			lvsH.put(lv.SNP,lv);
+			lvsH.put(new SNP.Key(lv.SNPs),lv);
 		}
 		*/
 		
 		Vector<LocalVariant> lvsA_new_new = new Vector();
 		for (int l1=0; l1<bestClusterSet.size(); l1++)
 		{
-			Hashtable<String,Double> cons = new Hashtable();
+			Hashtable<Long,Double> cons = new Hashtable();
 			double tot = 0;
 			double sumFreq = 0;
 			for (int l2=0; l2<lvsA.size(); l2++)
@@ -214,10 +193,7 @@ public class LocalVariantSet
 				{
 					tot++;
 					sumFreq+=lvsA.get(l2).frequency;
-					String all_snp_string = lvsA.get(l2).SNP;
-					if (all_snp_string.startsWith(","))
-						all_snp_string=all_snp_string.substring(1);
-					String [] all_snp_array = all_snp_string.split(",");
+					long [] all_snp_array = lvsA.get(l2).SNPs;
 					for (int l3=0; l3<all_snp_array.length; l3++)
 					{
 						if (cons.get(all_snp_array[l3])==null)
@@ -230,7 +206,7 @@ public class LocalVariantSet
 					}
 				}				
 			}
-			String [] keys = cons.keySet().toArray(new String[0]);
+			Long [] keys = cons.keySet().toArray(new Long[0]);
 			for (int l2=0; l2<keys.length; l2++)
 			{
 				double nf = cons.get(keys[l2])/tot;
@@ -239,12 +215,13 @@ public class LocalVariantSet
 				else
 					cons.remove(keys[l2]);
 			}
-			String SNP_new_new = "";
-			keys = cons.keySet().toArray(new String[0]);
+			keys = cons.keySet().toArray(new Long[0]);
+			long [] SNP_new_new = new long [keys.length];
 			for (int l2=0; l2<keys.length; l2++)
-				SNP_new_new+=keys[l2]+",";
-			//System.out.println(SNP_new_new);
-			LocalVariant lv_new_new = new LocalVariant("", "", "", SNP_new_new, sumFreq);
+				SNP_new_new[l2]=keys[l2];
+			Arrays.sort(SNP_new_new);
+			//System.out.println(SNP.toString(SNP_new_new));
+			LocalVariant lv_new_new = new LocalVariant(SNP.NONE, SNP.NONE, SNP.NONE, SNP_new_new, sumFreq);
 			lvsA_new_new.add(lv_new_new);
 		}
 		
@@ -253,7 +230,7 @@ public class LocalVariantSet
 		for (int l=0; l<lvsA.size(); l++)
 		{
 			LocalVariant lv = lvsA.get(l);
-			lvsH.put(lv.SNP,lv);
+			lvsH.put(new SNP.Key(lv.SNPs),lv);
 		}
 		
 		
@@ -20,14 +20,14 @@ public class LocalVariantSetEnsemble
 		overl2=null;
 	}
 	
-	public LocalVariantSetEnsemble(Vector<Read> p, AmpliconSet a, String genome, double hErr, double nonhErr, int n_proc)
+	public LocalVariantSetEnsemble(Vector<Read> p, AmpliconSet a, String genome, double hErr, double nonhErr, WorkerPool pool)
 	{
 		starts=new double[a.starts.length];
 		stops=new double[a.starts.length];
 		overl1=new double[a.starts.length];
 		overl2=new double[a.starts.length];
 		lvse=new LocalVariantSet[a.starts.length];
-		lvse[0]=new LocalVariantSet(p,a.starts[0],a.starts[0],a.starts[1],a.stops[0],genome,hErr,nonhErr,n_proc);
+		lvse[0]=new LocalVariantSet(p,a.starts[0],a.starts[0],a.starts[1],a.stops[0],genome,hErr,nonhErr,pool);
 		starts[0]=a.starts[0];
 		stops[0]=a.stops[0];
 		overl1[0]=a.starts[0];
@@ -38,14 +38,14 @@ public class LocalVariantSetEnsemble
 			double middle1=a.stops[i-1];
 			double middle2=a.starts[i+1];
 			double stop=a.stops[i];
-			LocalVariantSet lvs = new LocalVariantSet(p,start,middle1,middle2,stop,genome,hErr,nonhErr,n_proc);
+			LocalVariantSet lvs = new LocalVariantSet(p,start,middle1,middle2,stop,genome,hErr,nonhErr,pool);
 			lvse[i]=lvs;
 			starts[i]=a.starts[i];
 			stops[i]=a.stops[i];
 			overl1[i]=middle1;
 			overl2[i]=middle2;
 		}
-		lvse[lvse.length-1]=new LocalVariantSet(p,a.starts[lvse.length-1],a.stops[lvse.length-2],a.stops[lvse.length-1],a.stops[lvse.length-1],genome,hErr,nonhErr,n_proc);
+		lvse[lvse.length-1]=new LocalVariantSet(p,a.starts[lvse.length-1],a.stops[lvse.length-2],a.stops[lvse.length-1],a.stops[lvse.length-1],genome,hErr,nonhErr,pool);
 		starts[lvse.length-1]=a.starts[lvse.length-1];
 		stops[lvse.length-1]=a.stops[lvse.length-1];
 		overl1[lvse.length-1]=a.stops[lvse.length-2];
@@ -72,7 +72,7 @@ public class LocalVariantSetEnsemble
 					multinomialDistributions[i][j]=0;
 			}
 		
-		int index = (int)(Math.random()*(multinomialDistributions.length-1));
+		int index = (int)(Rng.random()*(multinomialDistributions.length-1));
 		double bestChiProb = -1*Double.MAX_VALUE;
 		for (int i=0; i<multinomialDistributions.length; i++)
 		{
@@ -92,7 +92,7 @@ public class LocalVariantSetEnsemble
 		}
 		
 		/*
-		int index = (int)(Math.random()*(multinomialDistributions.length-1));
+		int index = (int)(Rng.random()*(multinomialDistributions.length-1));
 		double minSQM = Double.MAX_VALUE;
 		for (int i=0; i<multinomialDistributions.length; i++)
 		{
@@ -126,10 +126,10 @@ public class LocalVariantSetEnsemble
 				fw.write(Math.round(overl1[i])+"\t");
 				fw.write(Math.round(overl2[i])+"\t");
 				fw.write(Math.round(stops[i])+"\t");
-				fw.write(lv.overlSNP1+"\t");
-				fw.write(lv.amplSNP+"\t");
-				fw.write(lv.overlSNP2+"\t");
-				fw.write(lv.SNP+"\t");
+				fw.write(SNP.toString(lv.overlSNP1)+"\t");
+				fw.write(SNP.toString(lv.amplSNP)+"\t");
+				fw.write(SNP.toString(lv.overlSNP2)+"\t");
+				fw.write(SNP.toString(lv.SNPs)+"\t");
 				fw.write(lv.frequency+"\r\n");
 			}	
 		}
@@ -432,7 +432,7 @@ public class LocalVariantSetEnsemble
 			System.out.print("|");
 		}
 		
-		String globalSNP = "";
+		long [] globalSNP = SNP.NONE;
 		for (int i=0; i<lvse.length; i++)
 		{
 			if (i<(lvse.length-1))
@@ -441,12 +441,12 @@ public class LocalVariantSetEnsemble
 					System.out.println("\r\nglobalVariantReconstructor error (should not happen ever). Exiting program.");
 					System.exit(0);
 				}
-			globalSNP+=lvse[i].lvsA.get(indices[i]).overlSNP1;
-			globalSNP+=lvse[i].lvsA.get(indices[i]).amplSNP;
+			globalSNP=SNP.concat(globalSNP,lvse[i].lvsA.get(indices[i]).overlSNP1);
+			globalSNP=SNP.concat(globalSNP,lvse[i].lvsA.get(indices[i]).amplSNP);
 			if (i==(lvse.length-1))
-				globalSNP+=lvse[i].lvsA.get(indices[i]).overlSNP2;
+				globalSNP=SNP.concat(globalSNP,lvse[i].lvsA.get(indices[i]).overlSNP2);
 		}
-		gv.SNP=globalSNP;
+		gv.SNPs=globalSNP;
 		double [] freqEst = new double [lvse.length];
 		for (int i=0; i<lvse.length; i++)
 		{
@@ -0,0 +1,217 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+public class Pileup
+{
+	// base counts of the aligned reads, one array per base. Columns 1..length are the reference
+	// positions; the insertion columns follow, in the order of the sorted insertions table.
+	// Counts are kept in units of 1/UNIT of a read, which the IUPAC shares divide exactly: sums
+	// of integers do not depend on their order, so reads can be counted in any split
+	public static final long UNIT = 10000;
+	public static final long HALF = 5000;
+	public static final long THIRD = 3333;
+	public static final long FIFTH = 2000;
+
+	public String reference;
+	public int length;
+	public long [] insertions;
+	public int columns;
+	public Counts [] partial;
+
+	public class Counts
+	{
+		public long [] A;
+		public long [] C;
+		public long [] G;
+		public long [] T;
+		public long [] del;
+		long [] covered;
+		long [] gaps;
+
+		public Counts()
+		{
+			A=new long [columns];
+			C=new long [columns];
+			G=new long [columns];
+			T=new long [columns];
+			del=new long [columns];
+			covered=new long [length+2];
+			gaps=new long [length+2];
+		}
+	}
+
+	public Pileup(String ref, Vector<Read> population, int slots)
+	{
+		// one set of counts per worker slot, made when the slot counts its first read
+		reference=ref;
+		length=ref.length();
+		insertions=insertionColumns(population);
+		columns=length+1+insertions.length;
+		partial=new Counts [Math.max(1,slots)];
+	}
+
+	static long [] insertionColumns(Vector<Read> population)
+	{
+		// coordinates of every insertion in the reads, sorted and distinct
+		long [] c = new long [64];
+		int n = 0;
+		for (int i=0; i<population.size(); i++)
+		{
+			long [] snps = population.get(i).SNPs;
+			for (int j=0; j<snps.length; j++)
+			{
+				long coordinate = SNP.coordinate(snps[j]);
+				if (Coordinate.isInsertion(coordinate))
+				{
+					if (n==c.length)
+						c=Arrays.copyOf(c,2*n);
+					c[n++]=coordinate;
+				}
+			}
+		}
+		Arrays.sort(c,0,n);
+		int m = 0;
+		for (int i=0; i<n; i++)
+			if (m==0 || c[m-1]!=c[i])
+				c[m++]=c[i];
+		return Arrays.copyOf(c,m);
+	}
+
+	public int column(long coordinate)
+	{
+		if (!Coordinate.isInsertion(coordinate))
+			return Coordinate.position(coordinate);
+		return length+1+Arrays.binarySearch(insertions,coordinate);
+	}
+
+	public void add(Read r, int slot)
+	{
+		if (partial[slot]==null)
+			partial[slot]=new Counts();
+		Counts c = partial[slot];
+		for (int j=0; j<r.SNPs.length; j++)
+			add(c,column(SNP.coordinate(r.SNPs[j])),SNP.base(r.SNPs[j]),r.count);
+		// coverage as differences: reference positions in [first,last] and the gaps after them
+		// whose insertions fall in [first,last]
+		long first = Coordinate.from(r.start);
+		long last = Coordinate.to(r.stop);
+		int from = Math.max(1,Coordinate.position(first));
+		int to = Math.min(length,Coordinate.position(last));
+		if (from<=to)
+		{
+			c.covered[from]+=r.count;
+			c.covered[to+1]-=r.count;
+		}
+		int gapTo = Coordinate.isInsertion(last)?Coordinate.position(last):Coordinate.position(last)-1;
+		from = Math.max(0,Coordinate.position(first));
+		gapTo = Math.min(length,gapTo);
+		if (from<=gapTo)
+		{
+			c.gaps[from]+=r.count;
+			c.gaps[gapTo+1]-=r.count;
+		}
+	}
+
+	static void add(Counts c, int i, char base, long n)
+	{
+		switch (base)
+		{
+			case 'A': c.A[i]+=UNIT*n; break;
+			case 'C': c.C[i]+=UNIT*n; break;
+			case 'G': c.G[i]+=UNIT*n; break;
+			case 'T': c.T[i]+=UNIT*n; break;
+			case '-': c.del[i]+=UNIT*n; break;
+			case 'R': c.A[i]+=HALF*n; c.G[i]+=HALF*n; break;
+			case 'Y': c.C[i]+=HALF*n; c.T[i]+=HALF*n; break;
+			case 'K': c.G[i]+=HALF*n; c.T[i]+=HALF*n; break;
+			case 'M': c.A[i]+=HALF*n; c.C[i]+=HALF*n; break;
+			case 'S': c.C[i]+=HALF*n; c.G[i]+=HALF*n; break;
+			case 'W': c.A[i]+=HALF*n; c.T[i]+=HALF*n; break;
+			case 'B': c.C[i]+=THIRD*n; c.G[i]+=THIRD*n; c.T[i]+=THIRD*n; break;
+			case 'D': c.A[i]+=THIRD*n; c.G[i]+=THIRD*n; c.T[i]+=THIRD*n; break;
+			case 'H': c.A[i]+=THIRD*n; c.C[i]+=THIRD*n; c.T[i]+=THIRD*n; break;
+			case 'V': c.A[i]+=THIRD*n; c.C[i]+=THIRD*n; c.G[i]+=THIRD*n; break;
+			default : c.A[i]+=FIFTH*n; c.C[i]+=FIFTH*n; c.G[i]+=FIFTH*n; c.T[i]+=FIFTH*n; c.del[i]+=FIFTH*n; break;
+		}
+	}
+
+	public Counts reduce(WorkerPool pool)
+	throws Exception
+	{
+		// the slots' counts are summed into the first one, each worker taking a range of columns
+		int first = 0;
+		while (first<partial.length-1 && partial[first]==null)
+			first++;
+		if (partial[first]==null)
+			partial[first]=new Counts();
+		final Counts total = partial[first];
+		final Vector<Counts> others = new Vector();
+		for (int s=first+1; s<partial.length; s++)
+			if (partial[s]!=null)
+				others.add(partial[s]);
+		if (others.size()>0)
+			pool.run(Math.max(columns,length+2),new WorkerPool.Task()
+			{
+				public void run(int from, int to, int slot)
+				{
+					for (int s=0; s<others.size(); s++)
+					{
+						Counts c = others.get(s);
+						for (int i=from; i<Math.min(to,columns); i++)
+						{
+							total.A[i]+=c.A[i];
+							total.C[i]+=c.C[i];
+							total.G[i]+=c.G[i];
+							total.T[i]+=c.T[i];
+							total.del[i]+=c.del[i];
+						}
+						for (int i=from; i<Math.min(to,length+2); i++)
+						{
+							total.covered[i]+=c.covered[i];
+							total.gaps[i]+=c.gaps[i];
+						}
+					}
+				}
+			},false);
+		return total;
+	}
+
+	public BaseSet toBaseSet(WorkerPool pool)
+	throws Exception
+	{
+		// one base per reference position and per insertion column, in coordinate order
+		Counts total = reduce(pool);
+		BaseSet bs = new BaseSet(length+insertions.length);
+		long coverage = 0;
+		long gapCoverage = 0;
+		int k = 0;
+		for (int p=0; p<=length; p++)
+		{
+			coverage+=total.covered[p];
+			gapCoverage+=total.gaps[p];
+			if (p>0)
+				bs.put(base(total,p,Coordinate.of(p,0),reference.charAt(p-1),coverage));
+			while (k<insertions.length && Coordinate.position(insertions[k])==p)
+			{
+				bs.put(base(total,length+1+k,insertions[k],'-',gapCoverage));
+				k++;
+			}
+		}
+		return bs;
+	}
+
+	static Base base(Counts c, int i, long coordinate, char ref, double coverage)
+	{
+		Base b = new Base();
+		b.coordinate=coordinate;
+		b.reference=ref;
+		b.A=(double)c.A[i]/UNIT;
+		b.C=(double)c.C[i]/UNIT;
+		b.G=(double)c.G[i]/UNIT;
+		b.T=(double)c.T[i]/UNIT;
+		b.del=(double)c.del[i]/UNIT;
+		b.coverage=coverage;
+		return b;
+	}
+}
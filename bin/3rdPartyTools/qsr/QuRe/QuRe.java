@@ -1,6 +1,7 @@
 import java.io.*;
 import java.lang.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.math.*;
 
 public class QuRe
@@ -14,80 +15,131 @@ public class QuRe
 		Date d = new Date();
 		long starttime=d.getTime();
 		
-		String filename = args[0];
-		if (filename.lastIndexOf('.')!=-1)
-			filename=args[0].substring(0,args[0].lastIndexOf('.'));
+		Vector<String> arg = new Vector();
+		Hashtable<String,String> options = new Hashtable();
+		for (int i=0; i<args.length; i++)
+		{
+			if (args[i].startsWith("-") && i+1<args.length)
+			{
+				options.put(args[i].substring(1),args[i+1]);
+				i++;
+			}
+			else
+				arg.add(args[i]);
+		}
+		
+		String filename = SequenceInput.stripExtensions(arg.get(0).split(",")[0]);
 		
 		double homopolErr = 0.01d;
 		double nonHomopolErr = 0.005d;
 		int iterations = 3000;
 		
-		if (args.length>2)
+		if (arg.size()>2)
 		{
-			homopolErr = Double.parseDouble(args[2]);
-			nonHomopolErr = Double.parseDouble(args[3]);
-			iterations = Integer.parseInt(args[4]);
+			homopolErr = Double.parseDouble(arg.get(2));
+			nonHomopolErr = Double.parseDouble(arg.get(3));
+			iterations = Integer.parseInt(arg.get(4));
 		}
 		
+		int minQuality = 0;
+		if (options.get("minQuality")!=null)
+			minQuality = Integer.parseInt(options.get("minQuality"));
+		
+		// the main thread only waits on the pool, so by default every core gets a worker
 		int num_proc=Runtime.getRuntime().availableProcessors();
-		num_proc=num_proc-1;
+		if (options.get("threads")!=null)
+			num_proc = Integer.parseInt(options.get("threads"));
 		num_proc=Math.max(1,num_proc);
-		//num_proc=4;
+		WorkerPool pool = new WorkerPool(num_proc);
+		
+		System.out.println("parallel processing enabled: no. of worker threads = "+pool.threads);
 		
-		System.out.println("parallel processing enabled: no. of cores available = "+num_proc);
+		// every random draw derives from this seed; the same seed gives the same run for any -threads
+		long seed = System.nanoTime();
+		if (options.get("seed")!=null)
+			seed = Long.parseLong(options.get("seed"));
+		Rng.setSeed(seed);
+		System.out.println("random seed = "+seed);
+		if (options.get("proposals")!=null)
+			LocalVariantSet.proposals = Math.max(1,Integer.parseInt(options.get("proposals")));
 		
 		ReadSet rs = new ReadSet();
 		int kmer=9;
-		rs.readFasta(args[0]);
-		rs.readReferenceGenome(args[1],kmer);
-		
+		boolean collapse = true;
+		if (options.get("collapse")!=null)
+			collapse = !options.get("collapse").equals("no");
+		boolean stream = (options.get("stream")!=null && options.get("stream").equals("yes"));
 		float gop=23f;
 		float gep=0.3f;
-		rs.setRandomScoresParallel(2000,gop,gep,num_proc);
-		rs.alignParallel(num_proc,gop,gep,kmer);
+		String kernel = "striped";
+		if (options.get("aligner")!=null)
+			kernel = options.get("aligner");
+		if (stream)
+		{
+			// parse -> align through a bounded queue, the reference being indexed first
+			rs.readReferenceGenome(arg.get(1),kmer,options.get("referenceIndex"));
+			if (options.get("alignmentCache")!=null)
+				rs.openAlignmentCache(options.get("alignmentCache"),gop,gep,kmer);
+			rs.selectScoreKernel(kernel,gop,gep);
+			String [] queries = rs.readAndAlignReads(arg.get(0),minQuality,collapse,pool,gop,gep,kmer,2000);
+			rs.setRandomScoresParallel(queries,gop,gep,pool);
+		}
+		else
+		{
+			rs.readReads(arg.get(0),minQuality,collapse);
+			rs.readReferenceGenome(arg.get(1),kmer,options.get("referenceIndex"));
+			if (options.get("alignmentCache")!=null)
+				rs.openAlignmentCache(options.get("alignmentCache"),gop,gep,kmer);
+			rs.selectScoreKernel(kernel,gop,gep);
+			// pre-reconstruction phases: parse -> index -> {random scores, align} -> p-values -> filter
+			// -> pileup -> correct; the quasi-random scores only need the reads and the reference, so
+			// they are sampled on the pool while the reads are aligned
+			Future randomScores = rs.setRandomScoresConcurrently(2000,gop,gep,pool);
+			rs.alignParallel(pool,gop,gep,kmer);
+			rs.joinRandomScores(randomScores);
+		}
+		rs.writeAlignmentCache();
 		rs.setAllPvalues("BH");
 		rs.removeBadReads(0.01d);
-		rs.estimateBaseSet();
-		rs.correctReadsParallel(0.01d, nonHomopolErr, homopolErr, num_proc);
+		rs.estimateBaseSet(pool);
+		rs.correctReadsParallel(0.01d, nonHomopolErr, homopolErr, pool);
 		rs.updatePopulationStats();
-		System.out.println("\t"+rs.population.size()+" reads spanning the high-coverage window");
+		System.out.println("\t"+rs.readCount()+" reads spanning the high-coverage window");
 		
 		FileWriter fw = new FileWriter(filename+"_alignedReads.txt");
 		//fw.write("name\tSNP_string\tmappingPosition\tstart\tstop\torientation\tsimilarity\tinsertions\tpvalue\tadjustedPvalue\r\n");
 		fw.write("name\tvariations\tstart\tstop\ttrimmed_sequence\tadj_pvalue\r\n");
 		for (int i=0; i<rs.population.size(); i++)
 		{
-			fw.write(rs.population.get(i).name+"\t");
-			fw.write(rs.population.get(i).SNP_string+"\t");
-			//fw.write(rs.population.get(i).mappingPosition+"\t");
-			fw.write(rs.population.get(i).start+"\t");
-			fw.write(rs.population.get(i).stop+"\t");
-			//fw.write(rs.population.get(i).orientation+"\t");
-			//fw.write(rs.population.get(i).similarity+"\t");
-			//fw.write(rs.population.get(i).insertions+"\t");
-			//fw.write(rs.population.get(i).pvalue+"\t");
-			fw.write(rs.population.get(i).sequence+"\t");
-			fw.write(rs.population.get(i).adjustedPvalue+"");
-			fw.write("\r\n");
+			for (int c=0; c<rs.population.get(i).count; c++)
+			{
+				// collapsed duplicates are written out under their own names
+				if (c==0)
+					fw.write(rs.population.get(i).name+"\t");
+				else
+					fw.write(rs.population.get(i).duplicates.get(c-1)+"\t");
+				fw.write(SNP.toString(rs.population.get(i).SNPs)+"\t");
+				//fw.write(rs.population.get(i).mappingPosition+"\t");
+				fw.write(rs.population.get(i).start+"\t");
+				fw.write(rs.population.get(i).stop+"\t");
+				//fw.write(rs.population.get(i).orientation+"\t");
+				//fw.write(rs.population.get(i).similarity+"\t");
+				//fw.write(rs.population.get(i).insertions+"\t");
+				//fw.write(rs.population.get(i).pvalue+"\t");
+				fw.write(rs.population.get(i).sequence+"\t");
+				fw.write(rs.population.get(i).adjustedPvalue+"");
+				fw.write("\r\n");
+			}
 		}
 		fw.close();
 		
-		LinkedList<Base> base_list = new LinkedList();
-		Object [] key = rs.baseSet.keySet().toArray();
-		Arrays.sort(key);
-		for (int i=0; i<key.length; i++)
-		{
-			Base b = rs.baseSet.get(key[i]);
-			base_list.add(b);
-		}
-		
 		fw = new FileWriter(filename+"_snpTable.txt");
 		//fw.write("position\treference\tconsensus\tA\tC\tG\tT\tdel\tcoverage\tprobcoverage\tentropy\r\n");
 		fw.write("position\treference\tconsensus\tA\tC\tG\tT\tdel\tcoverage\tentropy\r\n");
-		for (int i=0; i<base_list.size(); i++)
+		for (int i=0; i<rs.baseSet.size(); i++)
 		{
-			Base b = base_list.get(i);
-			fw.write(b.position+"\t");
+			Base b = rs.baseSet.base(i);
+			fw.write(Coordinate.toString(b.coordinate)+"\t");
 			fw.write(b.reference+"\t");
 			fw.write(b.consensus+"\t");
 			fw.write(b.A+"\t");
@@ -97,9 +149,9 @@ public class QuRe
 			fw.write(b.del+"\t");
 			fw.write(b.coverage+"\t");
 			//boolean indel = false;
-			//if (b.reference=='-' || b.consensus=='-' || Math.floor(b.position)!=b.position)
+			//if (b.reference=='-' || b.consensus=='-' || Coordinate.isInsertion(b.coordinate))
 			//	indel=true;
-			//fw.write(Functions.isHomopolymeric((int)Math.floor(b.position-1),rs.consensusGenomeNoIndels,indel)+"\t");
+			//fw.write(Functions.isHomopolymeric(Coordinate.position(b.coordinate)-1,rs.consensusGenomeNoIndels,indel)+"\t");
 			//fw.write(b.probCoverage+"\t");
 			fw.write(b.entropy+"\r\n");
 			
@@ -112,7 +164,7 @@ public class QuRe
 		System.out.println("alignment and mapping time = "+timePassed1+" ms");
 		
 		System.out.println("starting Quasispecies Reconstruction (QuRe)");
-		rs.estimateAmpliconsParallel(iterations, num_proc);
+		rs.estimateAmpliconsParallel(iterations, pool);
 		
 		/*
 		Vector<GlobalVariant> gvFinal = new Vector();
@@ -122,14 +174,14 @@ public class QuRe
 			String perc = (Math.round(100f*((float)(i))/((float)(rs.goodAmpliconSets.size()))))+"% ";
 			System.out.print(perc);
 			rs.ampliconSet=rs.goodAmpliconSets.get(i);
-			LocalVariantSetEnsemble lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, num_proc);
+			LocalVariantSetEnsemble lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, pool);
 			//if (i==0) lvse.printToFile(filename+"_overlappingIntervalsSet.txt");
 			Vector<GlobalVariant> gvFinal1 = lvse.quasispeciesReconstructor(rs.referenceGenome);
 			while(gvFinal1.size()==0 && lvse.starts.length>1)
 			{
 				double [] newStarts = new double [rs.ampliconSet.starts.length-1];
 				double [] newStops = new double [rs.ampliconSet.stops.length-1];
-				if (Math.random()<0.5d)
+				if (Rng.random()<0.5d)
 				{
 					for (int i1=0; i1<rs.ampliconSet.starts.length-1; i1++)
 					{
@@ -149,7 +201,7 @@ public class QuRe
 					rs.ampliconSet.starts=newStarts;
 					rs.ampliconSet.stops=newStops;
 				}
-				lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, num_proc);
+				lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, pool);
 				lvse.printToFile(filename+"_overlappingIntervalsSet.txt");
 				gvFinal1 = lvse.quasispeciesReconstructor(rs.referenceGenome);
 			}
@@ -168,14 +220,14 @@ public class QuRe
 		
 		System.out.print("\texecuting core reconstruction algorithm ");
 		rs.ampliconSet=rs.goodAmpliconSets.get(0);
-		LocalVariantSetEnsemble lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, num_proc);
+		LocalVariantSetEnsemble lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, pool);
 		lvse.printToFile(filename+"_overlappingIntervalsSet.txt");
 		Vector<GlobalVariant> gvFinal = lvse.quasispeciesReconstructor(rs.referenceGenome);
 		while(gvFinal.size()==0 && lvse.starts.length>1)
 		{
 			double [] newStarts = new double [rs.ampliconSet.starts.length-1];
 			double [] newStops = new double [rs.ampliconSet.stops.length-1];
-			if (Math.random()<0.5d)
+			if (Rng.random()<0.5d)
 			{
 				for (int i1=0; i1<rs.ampliconSet.starts.length-1; i1++)
 				{
@@ -195,7 +247,7 @@ public class QuRe
 				rs.ampliconSet.starts=newStarts;
 				rs.ampliconSet.stops=newStops;
 			}
-			lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, num_proc);
+			lvse = new LocalVariantSetEnsemble(rs.population, rs.ampliconSet, rs.referenceGenome, homopolErr, nonHomopolErr, pool);
 			lvse.printToFile(filename+"_overlappingIntervalsSet.txt");
 			gvFinal = lvse.quasispeciesReconstructor(rs.referenceGenome);
 		}
@@ -216,7 +268,7 @@ public class QuRe
 		
 		System.out.print("\t\tfinal clustering (random search + BIC selection) ");
 		if (gvFinal.size()>1)
-			gvFinal = Functions.correct(gvFinal, rs.ampliconSet.starts[0], rs.ampliconSet.stops[rs.ampliconSet.stops.length-1], rs.referenceGenome, homopolErr, nonHomopolErr, iterations, num_proc);
+			gvFinal = Functions.correct(gvFinal, rs.ampliconSet.starts[0], rs.ampliconSet.stops[rs.ampliconSet.stops.length-1], rs.referenceGenome, homopolErr, nonHomopolErr, iterations, pool);
 		gvFinal = Functions.mergeGlobalVariantSet(gvFinal);
 		Functions.setFrequencies(gvFinal);
 		System.out.println("\t\tfinal number of variants = "+gvFinal.size());
@@ -235,6 +287,7 @@ public class QuRe
 		long timePassed3=stoptime2-starttime;
 		System.out.println("amplicon estimation and quasispecies reconstruction time = "+timePassed2+" ms");
 		System.out.println("total time employed = "+timePassed3+" ms");
+		pool.shutdown();
 		
 		System.out.println("----------------------------------------------------------------------------");
 		System.out.println("----------------------------------------------------------------------------");
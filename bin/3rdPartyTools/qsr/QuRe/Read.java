@@ -14,13 +14,16 @@ import jaligner.util.SequenceParser;
 
 public class Read
 {
+	public static final double UNAMBIGUOUS_CONFIDENCE = 0.9d;
+	public static final int UNAMBIGUOUS_STRAND_RATIO = 4;
+
 	public int idx;
+	public int count;
 	public String name;
+	public Vector<String> duplicates;
 	public String sequence;
 	public String orientation;
-	public String SNP_string;
-	public Hashtable<String,String> SNP_hash;
-	public Vector<SNP> SNP_list;
+	public long [] SNPs;
 	public int mappingPosition;
 	public float start;
 	public float stop;
@@ -36,11 +39,11 @@ public class Read
 	public Read()
 	{
 		idx=-1;
+		count=1;
 		name=null;
+		duplicates=null;
 		sequence=null;
-		SNP_string=null;
-		SNP_hash=null;
-		SNP_list=null;
+		SNPs=null;
 		mappingPosition=-1;
 		start=-1;
 		stop=-1;
@@ -54,38 +57,58 @@ public class Read
 		adjustedPvalue=-1;
 	}
 	
-	public void correct(HashMap<Double,Base> baseSet)
+	public void correct(BaseSet baseSet)
 	{
+		// the bases spanned by the read are walked next to its own variations, both sorted by
+		// coordinate; variations outside the span only need their own base looked up
 		Read r = this;
-		Hashtable<String,String> newSNPHash = new Hashtable();
-		Object [] key = baseSet.keySet().toArray();
-		for (int i=0; i<key.length; i++)
+		long first = Coordinate.from(r.start);
+		long last = Coordinate.to(r.stop);
+		int from = baseSet.indexOf(first);
+		from=(from>=0)?from:-from-1;
+		int to = baseSet.indexOf(last);
+		to=(to>=0)?to+1:-to-1;
+		to=Math.max(from,to);
+		long [] newSNPs = new long [r.SNPs.length+(to-from)];
+		int n = 0;
+		int j = 0;
+		for (; j<r.SNPs.length && SNP.coordinate(r.SNPs[j])<first; j++)
+			if (supports(baseSet.get(SNP.coordinate(r.SNPs[j])),r.SNPs[j]))
+				newSNPs[n++]=r.SNPs[j];
+		for (int i=from; i<to; i++)
 		{
-			Base b = baseSet.get(key[i]);
-			if (r.SNP_hash.get(b.reference+"_"+b.position)!=null)
+			Base b = baseSet.base(i);
+			// variations whose base was removed from the set are dropped
+			while (j<r.SNPs.length && SNP.coordinate(r.SNPs[j])<b.coordinate)
+				j++;
+			boolean found = (j<r.SNPs.length && SNP.coordinate(r.SNPs[j])==b.coordinate && SNP.reference(r.SNPs[j])==b.reference);
+			if (found)
 			{
-				if (r.SNP_hash.get(b.reference+"_"+b.position).equals("A") && b.A>0)
-					newSNPHash.put(b.reference+"_"+b.position,"A");
-				if (r.SNP_hash.get(b.reference+"_"+b.position).equals("C") && b.C>0)
-					newSNPHash.put(b.reference+"_"+b.position,"C");
-				if (r.SNP_hash.get(b.reference+"_"+b.position).equals("G") && b.G>0)
-					newSNPHash.put(b.reference+"_"+b.position,"G");
-				if (r.SNP_hash.get(b.reference+"_"+b.position).equals("T") && b.T>0)
-					newSNPHash.put(b.reference+"_"+b.position,"T");
-				if (r.SNP_hash.get(b.reference+"_"+b.position).equals("-") && b.del>0)
-					newSNPHash.put(b.reference+"_"+b.position,"-");
+				if (supports(b,r.SNPs[j]))
+					newSNPs[n++]=r.SNPs[j];
 			}
-			if 
+			else if 
 			(
-				r.SNP_hash.get(b.reference+"_"+b.position)==null && 
-				(r.start<=b.position) && (r.stop>=b.position) &&
 				(b.reference!=b.consensus) &&
 				( (b.A==0 && b.reference=='A') || (b.C==0 && b.reference=='C') || (b.G==0 && b.reference=='G') || (b.T==0 && b.reference=='T') || (b.del==0 && b.reference=='-') )
 			)
-				newSNPHash.put(b.reference+"_"+b.position,b.consensus+"");
+				newSNPs[n++]=SNP.encode(b.coordinate,b.reference,b.consensus);
 		}
-		r.SNP_hash=newSNPHash;
-		r.updateSNPFromHash();
+		while (j<r.SNPs.length && SNP.coordinate(r.SNPs[j])<=last)
+			j++;
+		for (; j<r.SNPs.length; j++)
+			if (supports(baseSet.get(SNP.coordinate(r.SNPs[j])),r.SNPs[j]))
+				newSNPs[n++]=r.SNPs[j];
+		r.SNPs=Arrays.copyOf(newSNPs,n);
+	}
+	
+	public static boolean supports(Base b, long snp)
+	{
+		// a variation is kept where the corrected counts of its base still hold its alternative
+		if (b==null || b.reference!=SNP.reference(snp))
+			return false;
+		char base = SNP.base(snp);
+		return ((base=='A' && b.A>0) || (base=='C' && b.C>0) || (base=='G' && b.G>0) || (base=='T' && b.T>0) || (base=='-' && b.del>0));
 	}
 	
 	public void setPvalue(double rndScoreAvg, double rndScoreStd)
@@ -94,41 +117,43 @@ public class Read
 		this.pvalue = Functions.alignmentScoreSignificance(zeta);
 	}
 	
-	public void align(Hashtable genomeDictionary, String refGenome, double avgReadLength, double stdReadLength, Matrix matrix, float gop, float gep, int kmer)
+	public void align(KmerIndex genomeDictionary, String refGenome, double avgReadLength, double stdReadLength, Matrix matrix, float gop, float gep, int kmer, SeedHits seeds, BandedAligner aligner)
 	{
-		Logger l = Logger.getLogger(SmithWatermanGotoh.class.getName());
-		l.setLevel(Level.OFF);
 		int bound = (int)(avgReadLength+3*stdReadLength);
-		Integer [] fwdSBLAT = Functions.SBLAT(genomeDictionary,this.sequence,kmer);
-		int fwdMapPos = Functions.getMappingPosition(fwdSBLAT);
-		int fwdStart = Math.max(fwdMapPos-bound,0);
-		int fwdStop = Math.min(fwdMapPos+bound,refGenome.length());
-		String fwdGenomeCut = refGenome.substring(fwdStart,fwdStop);
-		if (fwdMapPos==-1)
-			fwdGenomeCut = refGenome;					
-		Sequence fwdQuery = new Sequence(this.sequence,"","",0);
-		Sequence fwdReference = new Sequence(fwdGenomeCut,"","",0);
-		Alignment fwdAlignment = new Alignment();
-		fwdAlignment = SmithWatermanGotoh.align(fwdQuery, fwdReference, matrix, gop, gep);
-		float fwdScore = fwdAlignment.getScore();
-			
-		Integer [] rwdSBLAT = Functions.SBLAT(genomeDictionary,Functions.reverseComplement(this.sequence),kmer);
-		int rwdMapPos = Functions.getMappingPosition(rwdSBLAT);
-		int rwdStart = Math.max(rwdMapPos-bound,0);
-		int rwdStop = Math.min(rwdMapPos+bound,refGenome.length());
-		String rwdGenomeCut = refGenome.substring(rwdStart,rwdStop);
-		if (rwdMapPos==-1)
-			rwdGenomeCut = refGenome;					
-		Sequence rwdQuery = new Sequence(Functions.reverseComplement(this.sequence),"","",0);
-		Sequence rwdReference = new Sequence(rwdGenomeCut,"","",0);
-		Alignment rwdAlignment = new Alignment();
-		rwdAlignment = SmithWatermanGotoh.align(rwdQuery, rwdReference, matrix, gop, gep);
-		float rwdScore = rwdAlignment.getScore();
+		Functions.SBLAT(genomeDictionary,this.sequence,kmer,seeds);
+		Functions.getMappingPosition(seeds,this.sequence.length(),refGenome.length());
+		if (Functions.isUnmappable(seeds,this.sequence.length(),kmer))
+		{
+			// marked unmapped without any alignment, the p-value filter removes it afterwards
+			seeds.rejected+=this.count;
+			this.setUnmapped();
+			return;
+		}
+		int fwdMapPos = seeds.fwdMapPos;
+		int rwdMapPos = seeds.rwdMapPos;
+		String strand = strand(seeds);
+		boolean fwd = (fwdMapPos!=-1 && (strand==null || strand.equals("forward")));
+		boolean rwd = (rwdMapPos!=-1 && (strand==null || strand.equals("reverse")));
+		if (fwd && rwd)
+			seeds.ambiguousStrands+=this.count;
+		Alignment fwdAlignment = null;
+		if (fwd)
+		{
+			boolean fwdSingleDiagonal = (seeds.fwdSpread==0 && seeds.fwdConfidence>=UNAMBIGUOUS_CONFIDENCE);
+			fwdAlignment = alignStrand(this.sequence,refGenome,fwdMapPos,seeds.fwdDiagonal,fwdSingleDiagonal,bound,matrix,gop,gep,aligner);
+		}
+		Alignment rwdAlignment = null;
+		if (rwd)
+		{
+			String rwdSequence = Functions.reverseComplement(this.sequence);
+			boolean rwdSingleDiagonal = (seeds.rwdSpread==0 && seeds.rwdConfidence>=UNAMBIGUOUS_CONFIDENCE);
+			rwdAlignment = alignStrand(rwdSequence,refGenome,rwdMapPos,seeds.rwdDiagonal,rwdSingleDiagonal,bound,matrix,gop,gep,aligner);
+		}
 
 		Alignment alignment = fwdAlignment;
 		this.orientation="forward";
 		this.mappingPosition=fwdMapPos;
-		if (rwdScore>fwdScore)
+		if (rwdAlignment!=null && (fwdAlignment==null || rwdAlignment.getScore()>fwdAlignment.getScore()))
 		{
 			alignment = rwdAlignment;
 			this.orientation="reverse";
@@ -139,125 +164,91 @@ public class Read
 		this.stop=this.start+alignment.getSequence1().length;
 		this.score=alignment.getScore();
 		this.setSNP(alignment);
-		this.sequence=String.valueOf(alignment.getSequence1()).replaceAll("-","");
+		this.sequence=aligner.withoutGaps(alignment.getSequence1());
+	}
+	
+	public void setUnmapped()
+	{
+		this.orientation="unmapped";
+		this.mappingPosition=-1;
+		this.score=0;
+		this.similarity=0;
+		this.insertions=0;
+		this.SNPs=SNP.NONE;
+	}
+	
+	public static String strand(SeedHits seeds)
+	{
+		// a strand whose diagonal clearly wins over everything else, the other strand included, is
+		// aligned alone; null means the votes are ambiguous and both strands have to be aligned
+		if (seeds.fwdMapPos!=-1 && seeds.fwdConfidence>=UNAMBIGUOUS_CONFIDENCE && seeds.fwdVotes>=UNAMBIGUOUS_STRAND_RATIO*Math.max(seeds.rwdVotes,Functions.MIN_SEED_VOTES))
+			return "forward";
+		if (seeds.rwdMapPos!=-1 && seeds.rwdConfidence>=UNAMBIGUOUS_CONFIDENCE && seeds.rwdVotes>=UNAMBIGUOUS_STRAND_RATIO*Math.max(seeds.fwdVotes,Functions.MIN_SEED_VOTES))
+			return "reverse";
+		return null;
+	}
+	
+	public Alignment alignStrand(String s, String refGenome, int mapPos, int diagonal, boolean singleDiagonal, int bound, Matrix matrix, float gop, float gep, BandedAligner aligner)
+	{
+		// the read is aligned in a band around its seed diagonal; reads seeded on a single diagonal
+		// try the ungapped path first
+		int start = Math.max(mapPos-bound,0);
+		int stop = Math.min(mapPos+bound,refGenome.length());
+		if (singleDiagonal)
+		{
+			Alignment a = aligner.alignUngapped(s,refGenome,start,stop,diagonal,matrix,gop,gep);
+			if (a!=null)
+				return a;
+		}
+		return aligner.align(s,refGenome,start,stop,diagonal,matrix,gop,gep);
 	}
 	
 	public void setSNP(Alignment a)
 	{
-		Vector<SNP> sl = new Vector();
-		Hashtable sh = new Hashtable();
-		String ss = "";
+		// variations in alignment order, which is their sorted order: insertions are ranked
+		// after the last reference base they follow
 		char [] query = a.getSequence1();
 		char [] refer = a.getSequence2();
-		double ins = 0;
-		//double frac = 0.5f;
-		double frac = 0.000000001f;
-		double insCount = 0;
+		long [] snps = new long [query.length];
+		int n = 0;
+		int ins = (int)(this.start)-1;
+		int rank = 0;
+		int insCount = 0;
 		for (int i=0; i<query.length; i++)
 		{
-			double pos = (this.start+i)-insCount;
+			int pos = (int)(this.start)+i-insCount;
 			if (query[i]!=refer[i] && refer[i]!='-')
 			{
-				SNP snp = new SNP(pos,refer[i],query[i]);
-				sl.add(snp);
-				sh.put(refer[i]+"_"+pos,query[i]+"");
-				ss=ss+refer[i]+"_"+pos+"_"+query[i]+",";
+				snps[n++]=SNP.encode(Coordinate.of(pos,0),refer[i],query[i]);
 				ins=pos;
-				//frac=0.5f;
-				frac=0.000000001f;
+				rank=0;
 			}
 			else
 				if (query[i]!=refer[i] && refer[i]=='-')
 				{
-					ins=ins+frac;
-					SNP snp = new SNP(ins,refer[i],query[i]);
-					sl.add(snp);
-					sh.put(refer[i]+"_"+ins,query[i]+"");
-					ss=ss+refer[i]+"_"+ins+"_"+query[i]+",";
+					rank++;
+					snps[n++]=SNP.encode(Coordinate.of(ins,rank),refer[i],query[i]);
 					insCount++;
-					//frac=frac/2f;
-					frac=frac+0.000000001f;
 				}
 				else
 				{
 					ins=pos;
-					//frac=0.5f;
-					frac=0.000000001f;
+					rank=0;
 				}
 		}
-		SNP_list=sl;
-		SNP_hash=sh;
-		SNP_string=ss;
+		SNPs=Arrays.copyOf(snps,n);
 		stop=start+a.getSequence1().length-(float)(insCount);
 		insertions=(int)(insCount);
 	}
 	
-	public void updateSNPFromHash()
-	{
-		String newSNPString = "";
-		Vector<SNP> newSNPList = new Vector();
-		Object [] key = this.SNP_hash.keySet().toArray();
-		for   (int i=0; i<key.length; i++)
-		{
-			String s = this.SNP_hash.get(key[i]);
-			char ref = key[i].toString().split("_")[0].charAt(0);
-			double pos = Double.parseDouble(key[i].toString().split("_")[1]);
-			char mut = s.charAt(0);
-			SNP newSNP = new SNP(pos,ref,mut);
-			newSNPList.add(newSNP);
-		}
-		this.SNP_list = newSNPList;
-		Comparator<SNP> comparatorPositions = new Comparator<SNP>()
-		{
-			public int compare(SNP r1, SNP r2)
-			{
-				if (r1.position<r2.position)
-					return -1;
-				if (r1.position>r2.position)
-					return 1;
-				return 0;
-			}
-		};
-		Collections.sort(this.SNP_list,comparatorPositions);
-		for (int i=0; i<this.SNP_list.size(); i++)
-		{
-			SNP snp = this.SNP_list.get(i);
-			newSNPString = newSNPString + snp.consensus + "_" + snp.position + "_" + snp.base + ",";
-		}
-		this.SNP_string = newSNPString;
-	}
-	
-	public String getSNPString(double sta, double sto)
+	public long [] getSNPs(double sta, double sto)
 	{
-		String thisSNP="";
-		for (int i=0; i<this.SNP_list.size(); i++)
-		{
-			SNP snp = this.SNP_list.get(i);
-			if (snp.position>=sta && snp.position<=sto)
-				thisSNP+=snp.toString();
-		}
-		return thisSNP;
+		return SNP.range(this.SNPs,sta,sto);
 	}
 	
 	public double distance(Read r, double sta, double sto)
 	{
-		double distance = 0;
-		String s1 = this.getSNPString(sta,sto);
-		String s2 = r.getSNPString(sta,sto);
-		String [] SNP1 = s1.split(",");
-		String [] SNP2 = s2.split(",");
-		LinkedList l1 = new LinkedList(Arrays.asList(SNP1));
-		LinkedList l2 = new LinkedList(Arrays.asList(SNP2));
-		for (int i=0; i<SNP1.length; i++)
-			if (!l2.contains(SNP1[i]))
-				distance++;
-		for (int i=0; i<SNP2.length; i++)
-			if (!l1.contains(SNP2[i]))
-				distance++;
-		//System.out.println(s1);
-		//System.out.println(s2);
-		//System.out.println(distance);
-		return distance;
+		return SNP.distance(this.getSNPs(sta,sto),r.getSNPs(sta,sto));
 	}
 	
 	public boolean spans(double sta, double sto)
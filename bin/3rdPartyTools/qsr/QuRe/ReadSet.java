@@ -1,6 +1,7 @@
 import java.io.*;
 import java.lang.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.math.*;
 import java.util.logging.*;
 import jaligner.Alignment;
@@ -15,17 +16,24 @@ import jaligner.util.Commons;
 
 public class ReadSet
 {
+	public static final int STREAM_WARMUP = 1000;
+	public static final int STREAM_BATCH = 256;
+	public static final int STREAM_QUEUE = 4;
+	
 	public Vector<Read> population;
 	public String referenceGenomeName;
 	public String referenceGenome;
 	public String consensusGenomeNoIndels;
-	public Hashtable genomeDictionary;
+	public KmerIndex genomeDictionary;
+	public ReferenceIndex referenceIndex;
+	public AlignmentCache alignmentCache;
+	public String scoreKernel;
 	public double avgReadLength;
 	public double stdReadLength;
 	public double rndScoreAvg;
 	public double rndScoreStd;
 	public Matrix matrix;
-	public HashMap<Double,Base> baseSet;
+	public BaseSet baseSet;
 	public AmpliconSet ampliconSet;
 	public Vector<AmpliconSet> goodAmpliconSets;
 	public double alignStart;
@@ -35,12 +43,13 @@ public class ReadSet
 	throws Exception
 	{
 		population = new Vector();
-		baseSet = new HashMap();
+		baseSet = new BaseSet(0);
 		Logger l = Logger.getLogger(MatrixLoader.class.getName());
 		l.setLevel(Level.OFF);
 		Logger z = Logger.getLogger(Commons.class.getName());
 		z.setLevel(Level.OFF);
 		matrix = MatrixLoader.load("EDNAFULL");
+		scoreKernel = "scalar";
 	}
 	
 	public ReadSet(int capacity)
@@ -52,8 +61,17 @@ public class ReadSet
 		Logger z = Logger.getLogger(Commons.class.getName());
 		z.setLevel(Level.OFF);
 		matrix = MatrixLoader.load("EDNAFULL");
+		scoreKernel = "scalar";
 	}
 					
+	public int readCount()
+	{
+		int n = 0;
+		for (int i=0; i<population.size(); i++)
+			n+=population.get(i).count;
+		return n;
+	}
+	
 	public void updatePopulationStats()
 	{
 		int u=0;
@@ -79,6 +97,7 @@ public class ReadSet
 			r.mappingPosition=(int)(r.start+(r.stop-r.start)/2);
 			readLengths[i]=r.insertions+r.stop-r.start;
 		}
+		readLengths=Functions.expand(readLengths,population);
 		avgReadLength=Functions.average(readLengths);
 		stdReadLength=Functions.stdev(readLengths);
 		System.out.println("\tpost-alignment (st.dev.) read length is "+Math.round(avgReadLength)+" ("+Math.round(stdReadLength)+")");
@@ -93,8 +112,8 @@ public class ReadSet
 		{
 			if (population.get(i).adjustedPvalue>alpha)
 			{
+				removed+=population.get(i).count;
 				population.remove(i);
-				removed++;
 			}
 			else
 				i++;
@@ -107,129 +126,54 @@ public class ReadSet
 			System.exit(0);
 		}
 		System.out.println("\tremoving "+removed+" reads with alignment p-value > "+alpha);
-		System.out.println("\t"+population.size()+" reads retained");
+		System.out.println("\t"+readCount()+" reads retained");
 		
 	}
 	
-	public void estimateBaseSet()
+	public void estimateBaseSet(WorkerPool pool)
+	throws Exception
 	{
 		System.out.print("reconstructing consensus genome and variations ");
-		int initialCapacity = referenceGenome.length()+(int)(Math.log(referenceGenome.length()));
-		HashMap<Double,Base> bs = new HashMap(initialCapacity,0.99f);
-		for (int i=0; i<referenceGenome.length(); i++)
-		{
-			Base b =  new Base();
-			b.reference=referenceGenome.charAt(i);
-			b.position=(double)(i+1);
-			bs.put(b.position,b);
-		}
-		for (int i=0; i<population.size(); i++)
+		// each worker counts its chunks of reads into its own slot's arrays, the slots are then
+		// summed column range by column range
+		final Pileup pileup = new Pileup(referenceGenome,population,pool.threads);
+		pool.run(population.size(),new WorkerPool.Task()
 		{
-			String perc = (Math.round(100f*((float)(i))/((float)(population.size()))))+"% ";
-			System.out.print(perc);
-			Read r = this.population.get(i);
-			for (int j=0; j<r.SNP_list.size(); j++)
+			public void run(int from, int to, int slot)
 			{
-				SNP snp = r.SNP_list.get(j);
-				if (bs.get(snp.position)!=null)
-				{
-					Base b = bs.get(snp.position);
-					switch (snp.base)
-					{
-						case 'A': b.A++; break;
-						case 'C': b.C++; break;
-						case 'G': b.G++; break;
-						case 'T': b.T++; break;
-						case '-': b.del++; break;
-						case 'R': b.A+=0.5d; b.G+=0.5d; break;
-						case 'Y': b.C+=0.5d; b.T+=0.5d; break;
-						case 'K': b.G+=0.5d; b.T+=0.5d; break;
-						case 'M': b.A+=0.5d; b.C+=0.5d; break;
-						case 'S': b.C+=0.5d; b.G+=0.5d; break;
-						case 'W': b.A+=0.5d; b.T+=0.5d; break;
-						case 'B': b.C+=0.3333d; b.G+=0.3333d; b.T+=0.3333d; break;
-						case 'D': b.A+=0.3333d; b.G+=0.3333d; b.T+=0.3333d; break;
-						case 'H': b.A+=0.3333d; b.C+=0.3333d; b.T+=0.3333d; break;
-						case 'V': b.A+=0.3333d; b.C+=0.3333d; b.G+=0.3333d; break;
-						default : b.A+=0.2d; b.C+=0.2d; b.G+=0.2d; b.T+=0.2d; b.del+=0.2d; break;
-					}
-				}
-				else
-				{
-					Base b = new Base();
-					b.position = snp.position;
-					b.reference = '-';
-					switch (snp.base)
-					{
-						case 'A': b.A++; break;
-						case 'C': b.C++; break;
-						case 'G': b.G++; break;
-						case 'T': b.T++; break;
-						case '-': b.del++; break;
-						case 'R': b.A+=0.5d; b.G+=0.5d; break;
-						case 'Y': b.C+=0.5d; b.T+=0.5d; break;
-						case 'K': b.G+=0.5d; b.T+=0.5d; break;
-						case 'M': b.A+=0.5d; b.C+=0.5d; break;
-						case 'S': b.C+=0.5d; b.G+=0.5d; break;
-						case 'W': b.A+=0.5d; b.T+=0.5d; break;
-						case 'B': b.C+=0.3333d; b.G+=0.3333d; b.T+=0.3333d; break;
-						case 'D': b.A+=0.3333d; b.G+=0.3333d; b.T+=0.3333d; break;
-						case 'H': b.A+=0.3333d; b.C+=0.3333d; b.T+=0.3333d; break;
-						case 'V': b.A+=0.3333d; b.C+=0.3333d; b.G+=0.3333d; break;
-						default : b.A+=0.2d; b.C+=0.2d; b.G+=0.2d; b.T+=0.2d; b.del+=0.2d; break;
-					}
-					bs.put(b.position,b);
-				}
+				for (int k=from; k<to; k++)
+					pileup.add(population.get(k),slot);
 			}
-			for (int o=0; o<perc.length(); o++)
-				System.out.print("\b");
-		}
+		},true);
 		System.out.print("100%");
-		Object [] key = bs.keySet().toArray();
-		for   (int i=0; i<key.length; i++)
-		{
-			Base b = bs.get(key[i]);
-			for (int j=0; j<population.size(); j++)
-			{
-				Read r = population.get(j);
-				if (b.position>=r.start && b.position<=r.stop)
-					b.coverage++;
-			}
-		}
+		BaseSet bs = pileup.toBaseSet(pool);
 		LinkedList<Double> bc = new LinkedList();
-		for   (int i=0; i<key.length; i++)
+		for   (int i=0; i<bs.size(); i++)
 		{
-			if (bs.get(key[i]).coverage>0)
-				bc.add(bs.get(key[i]).coverage);
+			if (bs.base(i).coverage>0)
+				bc.add(bs.base(i).coverage);
 		}
 		Double [] base_coverage = bc.toArray(new Double [bc.size()]);
 		double avgBasecoverage=Functions.average(base_coverage);
 		double stdBasecoverage=Functions.stdev(base_coverage);
 		System.out.println();
 		System.out.println("\taverage (st.dev.) coverage of each mapped base is "+Math.round(avgBasecoverage)+" ("+Math.round(stdBasecoverage)+")");
-		for (int i=0; i<key.length; i++)
+		for (int i=0; i<bs.size(); i++)
 		{
-			Base b = bs.get(key[i]);
+			Base b = bs.base(i);
 			b.setConsensus(avgBasecoverage,stdBasecoverage,0.05d);
 			b.calculateEntropy();
 		}
-		for (int i=0; i<key.length; i++)
-		{
-			Base b = bs.get(key[i]);
-			if (b.removed)
-				bs.remove(key[i]);
-		}
-		key = bs.keySet().toArray();
-		Arrays.sort(key);
+		bs.prune();
 		double maxAvgCoverage = 0;
 		int maxIndMaxAvgCoverage = 0;
-		double [] avgCoverage = new double [key.length];
-		for (int i=0; i<key.length; i++)
+		double [] avgCoverage = new double [bs.size()];
+		for (int i=0; i<bs.size(); i++)
 		{
 			double k = 0;
-			for (int j=Math.max(0,i-10); j<Math.min(key.length,i+10); j++)
+			for (int j=Math.max(0,i-10); j<Math.min(bs.size(),i+10); j++)
 			{
-				Base b = bs.get(key[j]);
+				Base b = bs.base(j);
 				avgCoverage[i]+=b.coverage;
 				k++;
 			}
@@ -240,21 +184,22 @@ public class ReadSet
 				maxIndMaxAvgCoverage = i;
 			}
 		}
-		double maxCoverageStart=bs.get(key[maxIndMaxAvgCoverage]).position;
-		double maxCoverageStop=bs.get(key[maxIndMaxAvgCoverage]).position;
-		for (int i=maxIndMaxAvgCoverage; i<key.length; i++)
+		// the run of consecutive reference positions around the best covered window
+		long maxCoverageStart=bs.base(maxIndMaxAvgCoverage).coordinate;
+		long maxCoverageStop=bs.base(maxIndMaxAvgCoverage).coordinate;
+		for (int i=maxIndMaxAvgCoverage; i<bs.size(); i++)
 		{
-			Base b = bs.get(key[i]);
-			if ((b.position-maxCoverageStop)<1.1d)
-				maxCoverageStop=b.position;
+			Base b = bs.base(i);
+			if (Coordinate.position(b.coordinate)-Coordinate.position(maxCoverageStop)<=1)
+				maxCoverageStop=b.coordinate;
 			else
 				break;
 		}
 		for (int i=maxIndMaxAvgCoverage; i>=0; i--)
 		{
-			Base b = bs.get(key[i]);
-			if ((maxCoverageStart-b.position)<1.1d)
-				maxCoverageStart=b.position;
+			Base b = bs.base(i);
+			if (Coordinate.position(maxCoverageStart)-Coordinate.position(b.coordinate)<=1)
+				maxCoverageStart=b.coordinate;
 			else
 				break;
 		}
@@ -278,39 +223,17 @@ public class ReadSet
 				maxCoverageStop=maxConsecutiveIndex;
 			}
 		}*/
-		for (int i=0; i<key.length; i++)
-		{
-			Base b = bs.get(key[i]);
-			if (b.position<maxCoverageStart || b.position>maxCoverageStop)
-				bs.remove(key[i]);
-		}
-		double minStart=alignStop;
-		double maxStop=alignStart;
-		key = bs.keySet().toArray();
-		for (int i=0; i<key.length; i++)
-		{
-			Base b = bs.get(key[i]);
-			if (b.removed)
-				bs.remove(key[i]);
-			else
-			{
-				if (b.position<minStart)
-					minStart=b.position;
-				if (b.position>maxStop)
-					maxStop=b.position;
-			}
-		}
-		alignStart=minStart;
-		alignStop=maxStop;
+		bs.retain(maxCoverageStart,maxCoverageStop);
+		setAlignedWindow(bs);
 		baseSet=bs;
 	}
 	
 	public class correctReadsThread implements Runnable 
 	{
 		Read read;
-		HashMap<Double,Base> baseSet;
+		BaseSet baseSet;
 		
-		public correctReadsThread(Read r, HashMap<Double,Base> b)
+		public correctReadsThread(Read r, BaseSet b)
 		{
 			read=r;
 			baseSet=b;
@@ -321,104 +244,54 @@ public class ReadSet
 		}
 	}
 	
-	public void correctReadsParallel(double tolerance, double erNoHomopol, double erHomopol, int n_proc)
+	public void correctReadsParallel(double tolerance, double erNoHomopol, double erHomopol, WorkerPool pool)
+	throws Exception
 	{
 		System.out.print("\tcorrecting mapped reads, SNP and indel list ");
 		consensusGenomeNoIndels="";
 		for (int i=0; i<referenceGenome.length(); i++)
 		{
-			if (baseSet.get((i+1d))==null)
+			Base b = baseSet.get(Coordinate.of(i+1,0));
+			if (b==null)
 				consensusGenomeNoIndels+=referenceGenome.charAt(i);
 			else
 			{
-				consensusGenomeNoIndels+=baseSet.get((i+1d)).consensus;
+				consensusGenomeNoIndels+=b.consensus;
 			}
 		}
 		//System.out.println(referenceGenome);
 		//System.out.println(consensusGenomeNoIndels);
-		Object [] key = baseSet.keySet().toArray();
-		for   (int i=0; i<key.length; i++)
+		for   (int i=0; i<baseSet.size(); i++)
 		{
-			Base b = baseSet.get(key[i]);
-			b.correct(tolerance,erNoHomopol,erHomopol, consensusGenomeNoIndels, (double)(key.length*5));
+			Base b = baseSet.base(i);
+			b.correct(tolerance,erNoHomopol,erHomopol, consensusGenomeNoIndels, (double)(baseSet.size()*5));
 		}
-		double minStart=alignStop;
-		double maxStop=alignStart;
-		for (int i=0; i<key.length; i++)
+		setAlignedWindow(baseSet);
+		pool.run(population.size(),new WorkerPool.Task()
 		{
-			Base b = baseSet.get(key[i]);
-			if (b.removed)
-				baseSet.remove(key[i]);
-			else
+			public void run(int from, int to, int slot)
 			{
-				if (b.position<minStart)
-					minStart=b.position;
-				if (b.position>maxStop)
-					maxStop=b.position;
+				for (int k=from; k<to; k++)
+					new correctReadsThread(population.get(k), baseSet).run();
 			}
-		}
-		alignStart=minStart;
-		alignStop=maxStop;
-		key = baseSet.keySet().toArray();
-		int i=0;
-		Thread [] thread_list = new Thread [n_proc];
-		while(i<population.size())
-		{
-			String perc = (Math.round(100f*((float)(i))/((float)(population.size()))))+"% ";
-			System.out.print(perc);
-			if (i==0)
-				for (int j=0; j<n_proc; j++)
-				{
-					Read r = population.get(i);
-					Runnable runnable = new correctReadsThread(r, baseSet);
-					thread_list[j] = new Thread(runnable);
-					thread_list[j].start();
-					i++;
-				}
-			else
-			{
-				int j=0;
-				while(thread_list[j].isAlive())
-				{
-					j++;
-					j=j%n_proc;
-				}
-				Read r = population.get(i);
-				Runnable runnable = new correctReadsThread(r, baseSet);
-				thread_list[j] = new Thread(runnable);
-				thread_list[j].start();
-				i++;
-			}
-			for (int o=0; o<perc.length(); o++)
-				System.out.print("\b");
-		}
-		int j=0;
-		while(j<n_proc)
-		{
-			if (!thread_list[j].isAlive())
-				j++;
-		}
+		},true);
 		System.out.print("100%");
 		System.out.println();
-		key = baseSet.keySet().toArray();
-		for (int k=0; k<key.length; k++)
-		{
-			Base b = baseSet.get(key[k]);
-			if (b.removed)
-				baseSet.remove(key[k]);
-			else
-				b.calculateEntropy();
-		}
-		minStart=alignStop;
-		maxStop=alignStart;
-		key = baseSet.keySet().toArray();
-		for (int k=0; k<key.length; k++)
+		for (int k=0; k<baseSet.size(); k++)
+			baseSet.base(k).calculateEntropy();
+		setAlignedWindow(baseSet);
+	}
+	
+	public void setAlignedWindow(BaseSet bs)
+	{
+		// drops the removed bases and narrows the aligned window to the reference positions left
+		bs.prune();
+		double minStart=alignStop;
+		double maxStop=alignStart;
+		if (bs.size()>0)
 		{
-			Base b = baseSet.get(key[k]);
-			if (b.position<minStart)
-				minStart=b.position;
-			if (b.position>maxStop)
-				maxStop=b.position;
+			minStart=Math.min(minStart,Coordinate.position(bs.first()));
+			maxStop=Math.max(maxStop,Coordinate.position(bs.last()));
 		}
 		alignStart=minStart;
 		alignStop=maxStop;
@@ -442,13 +315,18 @@ public class ReadSet
 				return 0;
 			}
 		};
+		// ranks and totals count every read; the duplicates of a collapsed read share its p-value and
+		// take the adjusted p-value of the last of their ranks, as tied p-values do in step-up BH
+		int n = readCount();
 		if (s.equals("BH"))
 		{
 			Collections.sort(population,comparatorPvalues);
+			int rank = 0;
 			for (int i=0; i<population.size(); i++)
 			{
 				Read r = this.population.get(i);
-				r.adjustedPvalue=r.pvalue*((double)(population.size()+1))/((double)(i+1));
+				rank+=r.count;
+				r.adjustedPvalue=r.pvalue*((double)(n+1))/((double)rank);
 			}
 		}
 		else
@@ -456,14 +334,14 @@ public class ReadSet
 			for (int i=0; i<population.size(); i++)
 			{
 				Read r = this.population.get(i);
-				r.adjustedPvalue=Math.min(1,r.pvalue*((double)population.size()));
+				r.adjustedPvalue=Math.min(1,r.pvalue*((double)n));
 			}
 		}
 	}
 	
 	public class setRandomScoresThread implements Runnable 
 	{
-		Vector<Read> population;
+		String query;
 		double [] rndScores;
 		String referenceGenome;
 		double avgReadLength;
@@ -472,10 +350,12 @@ public class ReadSet
 		float gep;
 		Matrix matrix;
 		int index;
+		ScoreAligner aligner;
 		
-		public setRandomScoresThread(Vector<Read> p, double [] r , String ref, double a, double s, float go, float ge, Matrix m, int i)
+		public setRandomScoresThread(String q, double [] r , String ref, double a, double s, float go, float ge, Matrix m, int i, ScoreAligner sa)
 		{
-			population=p;
+			aligner=sa;
+			query=q;
 			rndScores=r;
 			referenceGenome=ref;
 			avgReadLength=a;
@@ -489,69 +369,111 @@ public class ReadSet
 		{
 			Logger l = Logger.getLogger(SmithWatermanGotoh.class.getName());
 			l.setLevel(Level.OFF);
-			int rnd = (int)(Math.random()*(this.population.size()-1));
-			Read r = this.population.get(rnd);
-			String rndQuery = Functions.shuffle(r.sequence);
-			int rndMid = (int)(Math.random()*(referenceGenome.length()-1));
+			String rndQuery = Functions.shuffle(query);
+			int rndMid = (int)(Rng.random()*(referenceGenome.length()-1));
 			int rndStart = Math.max(rndMid-(int)(avgReadLength+2*stdReadLength),0);
 			int rndStop = Math.min(rndMid+(int)(avgReadLength+2*stdReadLength),referenceGenome.length());
-			String rndRefer = referenceGenome.substring(rndStart,rndStop);
-			Sequence rndQuerySeq = new Sequence(rndQuery,"","",0);
-			Sequence rndReferSeq = new Sequence(rndRefer,"","",0);
-			Alignment rndAlignment = new Alignment();
-			rndAlignment = SmithWatermanGotoh.align(rndQuerySeq, rndReferSeq, matrix, gop, gep);
-			rndScores[index]=(double)rndAlignment.getScore();
+			rndScores[index]=(double)aligner.score(rndQuery,referenceGenome,rndStart,rndStop);
 		}
 	}
 	
-	public void setRandomScoresParallel(int sampleSize, float gop, float gep, int n_proc)
+	public void selectScoreKernel(String kernel, float gop, float gep)
+	{
+		// the striped kernel is only used after it has reproduced jaligner's scores on a test corpus
+		scoreKernel="scalar";
+		if (kernel.equals("striped"))
+		{
+			if (StripedAligner.check(matrix,gop,gep,StripedAligner.CHECK_PAIRS))
+				scoreKernel="striped";
+			else
+				System.out.println("\tstriped kernel does not reproduce jaligner scores, using the scalar kernel");
+		}
+		else if (kernel.equals("jaligner"))
+			scoreKernel="jaligner";
+		else if (!kernel.equals("scalar"))
+			System.out.println("\tunknown alignment kernel \""+kernel+"\", using the scalar kernel");
+		System.out.println("\tscore-only alignment kernel: "+scoreKernel);
+	}
+	
+	public void setRandomScoresParallel(int sampleSize, float gop, float gep, WorkerPool pool)
+	throws Exception
+	{
+		setRandomScoresParallel(randomQueries(sampleSize),gop,gep,pool);
+	}
+	
+	public void setRandomScoresParallel(String [] queries, float gop, float gep, WorkerPool pool)
+	throws Exception
 	{
 		Logger l = Logger.getLogger(SmithWatermanGotoh.class.getName());
 		l.setLevel(Level.OFF);
-		double [] rndScores = new double[sampleSize];
 		System.out.print("\tcalculating quasi-random alignment score distribution ");
-		int i=0;
-		Thread [] thread_list = new Thread [n_proc];
-		while(i<sampleSize)
+		setRandomScores(queries,gop,gep,pool,true);
+		System.out.print("100%");
+		System.out.println("\r\n\taverage (st.dev) quasi-random score is "+Math.round(rndScoreAvg)+" ("+Math.round(rndScoreStd)+")");
+	}
+	
+	public Future setRandomScoresConcurrently(int sampleSize, final float gop, final float gep, final WorkerPool pool)
+	{
+		// the reads are drawn before alignment trims their sequences, the scores are then computed
+		// on the pool next to the alignment; joinRandomScores waits for them
+		Logger l = Logger.getLogger(SmithWatermanGotoh.class.getName());
+		l.setLevel(Level.OFF);
+		System.out.println("\tcalculating quasi-random alignment score distribution while aligning");
+		final String [] queries = randomQueries(sampleSize);
+		return pool.stage(new Callable<Object>()
 		{
-			String perc = (Math.round(100f*((float)(i))/((float)(sampleSize))))+"% ";
-			System.out.print(perc);
-			if (i==0)
-				for (int j=0; j<n_proc; j++)
-				{
-					Runnable runnable = new setRandomScoresThread(population, rndScores, referenceGenome, avgReadLength, stdReadLength, gop, gep, matrix, i);
-					thread_list[j] = new Thread(runnable);
-					thread_list[j].start();
-					i++;
-				}
-			else
+			public Object call()
+			throws Exception
 			{
-				int j=0;
-				while(thread_list[j].isAlive())
-				{
-					j++;
-					if (Math.random()<0.001d)
-						j=(int)(Math.random()*n_proc);
-					j=j%n_proc;
-				}
-				Runnable runnable = new setRandomScoresThread(population, rndScores, referenceGenome, avgReadLength, stdReadLength, gop, gep, matrix, i);
-				thread_list[j] = new Thread(runnable);
-				thread_list[j].start();
-				i++;
+				setRandomScores(queries,gop,gep,pool,false);
+				return null;
 			}
-			for (int o=0; o<perc.length(); o++)
-				System.out.print("\b");
-		}
-		int j=0;
-		while(j<n_proc)
+		});
+	}
+	
+	public void joinRandomScores(Future f)
+	throws Exception
+	{
+		if (f==null)
+			return;
+		WorkerPool.join(f);
+		System.out.println("\taverage (st.dev) quasi-random score is "+Math.round(rndScoreAvg)+" ("+Math.round(rndScoreStd)+")");
+	}
+	
+	String [] randomQueries(int sampleSize)
+	{
+		// reads drawn with their multiplicities
+		int [] counts = Functions.cumulativeCounts(population);
+		String [] queries = new String [sampleSize];
+		for (int i=0; i<sampleSize; i++)
 		{
-			if (!thread_list[j].isAlive())
-				j++;
+			int rnd = (int)(Rng.random()*(counts[counts.length-1]-1));
+			queries[i]=population.get(Functions.readAt(counts,rnd)).sequence;
 		}
-		System.out.print("100%");
+		return queries;
+	}
+	
+	void setRandomScores(final String [] queries, final float gop, final float gep, WorkerPool pool, boolean progress)
+	throws Exception
+	{
+		final double [] rndScores = new double[queries.length];
+		final ScoreAligner [] aligners = new ScoreAligner [pool.threads];
+		for (int j=0; j<pool.threads; j++)
+			aligners[j] = new ScoreAligner(scoreKernel,matrix,gop,gep);
+		final long stage = Rng.stage();
+		pool.run(queries.length,new WorkerPool.Task()
+		{
+			public void run(int from, int to, int slot)
+			{
+				for (int k=from; k<to; k++)
+				{
+					Rng.item(stage,k);
+					new setRandomScoresThread(queries[k], rndScores, referenceGenome, avgReadLength, stdReadLength, gop, gep, matrix, k, aligners[slot]).run();
+				}
+			}
+		},progress);
 		rndScoreAvg=Functions.average(rndScores);
 		rndScoreStd=Functions.stdev(rndScores);
-		System.out.println("\r\n\taverage (st.dev) quasi-random score is "+Math.round(rndScoreAvg)+" ("+Math.round(rndScoreStd)+")");
 	}
 	
 	public void setRandomScores(int sampleSize, float gop, float gep)
@@ -560,14 +482,15 @@ public class ReadSet
 		l.setLevel(Level.OFF);
 		double [] rndScores = new double [sampleSize];
 		System.out.print("\tcalculating quasi-random alignment score distribution ");
+		int [] counts = Functions.cumulativeCounts(population);
 		for (int i=0; i<sampleSize; i++)
 		{
 			String perc = (Math.round(100f*((float)(i))/((float)(sampleSize))))+"% ";
 			System.out.print(perc);
-			int rnd = (int)(Math.random()*(this.population.size()-1));
-			Read r = this.population.get(rnd);
+			int rnd = (int)(Rng.random()*(counts[counts.length-1]-1));
+			Read r = this.population.get(Functions.readAt(counts,rnd));
 			String rndQuery = Functions.shuffle(r.sequence);
-			int rndMid = (int)(Math.random()*(referenceGenome.length()-1));
+			int rndMid = (int)(Rng.random()*(referenceGenome.length()-1));
 			int rndStart = Math.max(rndMid-(int)(avgReadLength+2*stdReadLength),0);
 			int rndStop = Math.min(rndMid+(int)(avgReadLength+2*stdReadLength),referenceGenome.length());
 			String rndRefer = referenceGenome.substring(rndStart,rndStop);
@@ -588,141 +511,181 @@ public class ReadSet
 	public void readFasta(String fileName)
 	throws Exception
 	{
+		readReads(fileName,0);
+	}
+	
+	public void readReads(String fileNames, int minQuality)
+	throws Exception
+	{
+		readReads(fileNames,minQuality,true);
+	}
+	
+	public void readReads(String fileNames, int minQuality, boolean collapse)
+	throws Exception
+	{
+		// identical sequences are kept once, with their multiplicity in Read.count and the names
+		// of the other copies in Read.duplicates
 		population = new Vector();
-		System.out.print("parsing \""+fileName+"\" read file ");
-		FileReader fr = new FileReader(fileName);
-		File f = new File(fileName);
-		long scanSize=0;
-		BufferedReader br = new BufferedReader(fr);
-		String s1="";
-		Read r = new Read();
-		int count=0;
-		String s = "";
-		while(true)
+		HashMap<String,Read> unique = collapse?new HashMap():null;
+		int reads = 0;
+		String [] files = fileNames.split(",");
+		long trimmedBases = 0;
+		int discardedReads = 0;
+		for (int i=0; i<files.length; i++)
 		{
-			s = br.readLine();
-			if (s==null)
-			{
-				r.sequence=s1;
-				population.add(r);
-				System.out.print("100%");
-				break;
-			}
-			byte [] b = s.getBytes();
-			scanSize+=b.length;
-			String perc = (Math.round(100f*((float)(scanSize))/((float)(f.length()))))+"% ";
-			System.out.print(perc);
-			if (s.startsWith(">"))
+			if (i>0)
+				System.out.println();
+			System.out.print("parsing \""+files[i]+"\" read file ");
+			SequenceInput in = new SequenceInput(files[i]);
+			FastaReader fr = FastaReader.open(in,FastaReader.READ_TABLE,minQuality);
+			String perc = "";
+			while(true)
 			{
-				if (count>0)
+				Read r = fr.nextRead();
+				if (r==null)
+					break;
+				reads++;
+				Read u = (unique==null)?null:unique.get(r.sequence);
+				if (u!=null)
 				{
-					r.sequence=s1;
+					u.count++;
+					if (u.duplicates==null)
+						u.duplicates=new Vector();
+					u.duplicates.add(r.name);
+				}
+				else
+				{
+					r.idx=population.size();
 					population.add(r);
-					s1="";
+					if (unique!=null)
+						unique.put(r.sequence,r);
+				}
+				String newPerc = (Math.round(100f*((float)(fr.getPosition()))/((float)(Math.max(1,fr.length)))))+"% ";
+				if (!newPerc.equals(perc))
+				{
+					for (int o=0; o<perc.length(); o++)
+						System.out.print("\b");
+					System.out.print(newPerc);
+					perc=newPerc;
 				}
-				r = new Read();
-				r.name=s.substring(1);
-				r.idx=count;
-				count++;
 			}
-			else
-				s1+=s;
+			in.close();
 			for (int o=0; o<perc.length(); o++)
 				System.out.print("\b");
+			System.out.print("100%");
+			if (fr instanceof FastqReader)
+			{
+				trimmedBases+=((FastqReader)fr).trimmedBases;
+				discardedReads+=((FastqReader)fr).discardedReads;
+			}
 		}
-		fr.close();
+		reportReads(reads,collapse,minQuality,trimmedBases,discardedReads);
+	}
+	
+	void reportReads(int reads, boolean collapse, int minQuality, long trimmedBases, int discardedReads)
+	{
 		population.trimToSize();
 		double [] rl = new double [population.size()];
 		for (int i=0; i<population.size(); i++)
-		{
-			population.get(i).sequence = population.get(i).sequence.toUpperCase();
-			population.get(i).sequence = population.get(i).sequence.replaceAll("U","T");
-			population.get(i).sequence = population.get(i).sequence.replaceAll("[^ACGTRYKMSWBDHVN]+","");
 			rl[i]=population.get(i).sequence.length();
-		}
+		rl=Functions.expand(rl,population);
 		double avg = Functions.average(rl);
 		double std = Functions.stdev(rl);
 		avgReadLength=avg;
 		stdReadLength=std;
-		System.out.println("\r\n\t"+count+" reads");
+		System.out.println("\r\n\t"+reads+" reads");
+		if (collapse)
+			System.out.println("\t"+population.size()+" distinct sequences after collapsing exact duplicates");
+		if (minQuality>0)
+			System.out.println("\t"+trimmedBases+" low-quality tail bases trimmed (q<"+minQuality+"), "+discardedReads+" reads discarded");
 		System.out.println("\taverage (st.dev.) read length is "+Math.round(avg)+" ("+Math.round(std)+")");
 	}
 	
 	public void readReferenceGenome(String file, int kappa)
 	throws Exception
 	{
-		FileReader fr = new FileReader(file);
-		File f = new File(file);
-		BufferedReader read = new BufferedReader(fr);
-		System.out.print("parsing \""+file+"\" reference genome file ");
-		String rgn = "";
-		String rg = "";
-		long scanSize=0;
-		while(true)
+		readReferenceGenome(file,kappa,null);
+	}
+	
+	public void readReferenceGenome(String file, int kappa, String indexFile)
+	throws Exception
+	{
+		long checksum = 0;
+		long fastaLength = new File(file).length();
+		if (indexFile!=null)
 		{
-			String s = read.readLine();
-			if (s==null)
+			checksum = ReferenceIndex.checksum(file);
+			ReferenceIndex ri = ReferenceIndex.load(indexFile,checksum,fastaLength,kappa);
+			if (ri!=null)
 			{
+				System.out.print("loading \""+indexFile+"\" reference index ");
 				System.out.print("100%");
-				break;
+				this.setReference(ri);
+				System.out.println("\r\n\t"+referenceGenomeName+" read ("+referenceGenome.length()+" bases)");
+				return;
 			}
-			String perc = (Math.round(100f*((float)(scanSize))/((float)(f.length()))))+"% ";
-			System.out.print(perc);
-			byte [] b = s.getBytes();
-			scanSize+=b.length;
-			if (!s.startsWith(">"))
-				rg+=s;
-			else
-				rgn=s;
-			for (int o=0; o<perc.length(); o++)
-				System.out.print("\b");
 		}
+		SequenceInput in = new SequenceInput(file);
+		FastaReader fr = new FastaReader(in,FastaReader.REFERENCE_TABLE);
+		System.out.print("parsing \""+file+"\" reference genome file ");
+		String rgn = "";
+		StringBuilder rg = new StringBuilder();
+		while(fr.next())
+		{
+			rgn=">"+fr.name;
+			rg.append(fr.getSequence());
+		}
+		in.close();
+		System.out.print("100%");
 		referenceGenomeName=rgn;
-		referenceGenome=rg;
-		referenceGenome = referenceGenome.toUpperCase();
-		referenceGenome = referenceGenome.replaceAll("U","T");
-		//referenceGenome = referenceGenome.replaceAll("[^ACGTRYKMSWBDHVN]+","");
-		referenceGenome = referenceGenome.replaceAll("[^ACGT]+","");
+		referenceGenome=rg.toString();
 		System.out.println("\r\n\t"+rgn+" read ("+referenceGenome.length()+" bases)");
 		this.buildDictionary(kappa);
+		this.setReference(new ReferenceIndex(referenceGenomeName,referenceGenome,genomeDictionary,checksum,fastaLength));
+		if (indexFile!=null)
+		{
+			referenceIndex.write(indexFile);
+			System.out.println("\treference index written to \""+indexFile+"\"");
+		}
+	}
+	
+	public void setReference(ReferenceIndex ri)
+	{
+		referenceIndex=ri;
+		referenceGenomeName=ri.name;
+		referenceGenome=ri.sequence;
+		genomeDictionary=ri.dictionary;
+		Functions.reference=ri;
+	}
+	
+	public void writeAlignmentCache()
+	throws Exception
+	{
+		if (alignmentCache!=null)
+			alignmentCache.write();
+	}
+	
+	public void openAlignmentCache(String file, float gop, float gep, int kmer)
+	throws Exception
+	{
+		alignmentCache=AlignmentCache.load(file,AlignmentCache.settings(referenceGenome,gop,gep,kmer));
+		System.out.println("\talignment cache \""+file+"\" holds "+alignmentCache.size()+" alignments");
 	}
 	
 	public void buildDictionary (int k)
 	{
-		Hashtable h = new Hashtable();
-		int index = 0;
 		System.out.print("\tbuilding dictionary ");
-		while ((index+k)<referenceGenome.length())
-		{
-			String perc = (Math.round(100f*((float)(index))/((float)(referenceGenome.length()))))+"% ";
-			System.out.print(perc);
-			String kmer = referenceGenome.substring(index,index+k);
-			if (h.get(kmer)==null)
-			{
-				LinkedList<Integer> list = new LinkedList();
-				list.add(index);
-				h.put(kmer,list);
-			}
-			else
-			{
-				LinkedList<Integer> list = (LinkedList)(h.get(kmer));
-				list.add(index);
-				h.put(kmer,list);
-			}
-			index++;	
-			for (int o=0; o<perc.length(); o++)
-				System.out.print("\b");
-		}
+		genomeDictionary = new KmerIndex(referenceGenome,k);
 		System.out.print("100%");
-		genomeDictionary=h;
-		String dictionary = h.toString();
 		System.out.println();
 	}
 	
 	public class alignThread implements Runnable 
 	{
-		Read read;
-		Hashtable genomeDictionary;
+		Vector<Read> reads;
+		int from;
+		int to;
+		KmerIndex genomeDictionary;
 		String refGenome;
 		double avgReadLength;
 		double stdReadLength;
@@ -730,9 +693,13 @@ public class ReadSet
 		float gop;
 		float gep;
 		int kmer;
-		public alignThread (Read r, Hashtable gd, String rg, double al, double sl, Matrix m, float o, float e, int kappa)
+		SeedHits seeds;
+		BandedAligner aligner;
+		public alignThread (Vector<Read> r, int f, int t, KmerIndex gd, String rg, double al, double sl, Matrix m, float o, float e, int kappa, SeedHits s, BandedAligner a)
 		{
-			read = r;
+			reads = r;
+			from = f;
+			to = t;
 			genomeDictionary = gd;
 			refGenome = rg;
 			avgReadLength = al;
@@ -741,71 +708,114 @@ public class ReadSet
 			gop = o;
 			gep = e;
 			kmer=kappa;
+			seeds=s;
+			aligner=a;
 		}
 		public void run()
 		{
-			read.align(genomeDictionary,refGenome,avgReadLength,stdReadLength,matrix,gop,gep,kmer);
+			// a contiguous chunk of reads on one thread's seed and aligner buffers
+			for (int i=from; i<to; i++)
+				reads.get(i).align(genomeDictionary,refGenome,avgReadLength,stdReadLength,matrix,gop,gep,kmer,seeds,aligner);
 		}
 	}
 	
-	public void alignParallel(int n_proc,float gop, float gep, int kmer)
+	public void alignParallel(WorkerPool pool, final float gop, final float gep, final int kmer)
 	throws Exception
 	{
 		Date d1 = new Date();
 		long starttime=d1.getTime();
 		System.out.print("aligning reads to reference genome ");
-		int i=0;
-		Thread [] thread_list = new Thread [n_proc];
-		while(i<population.size())
+		// reads found in the alignment cache are filled in directly, only the others are aligned
+		final Vector<Read> pending;
+		long [] keys = null;
+		int [] lengths = null;
+		if (alignmentCache==null)
+			pending = population;
+		else
 		{
-			String perc = (Math.round(100f*((float)(i))/((float)(population.size()))))+"% ";
-			System.out.print(perc);
-			if (i==0)
-				for (int j=0; j<n_proc; j++)
-				{
-					Read r = population.get(i);
-					Runnable runnable = new alignThread(r, genomeDictionary, referenceGenome, avgReadLength, stdReadLength, matrix, gop, gep, kmer);
-					thread_list[j] = new Thread(runnable);
-					thread_list[j].start();
-					i++;
-				}
-			else
+			pending = new Vector();
+			for (int k=0; k<population.size(); k++)
+				if (!alignmentCache.get(population.get(k)))
+					pending.add(population.get(k));
+			keys = new long [pending.size()];
+			lengths = new int [pending.size()];
+			for (int k=0; k<pending.size(); k++)
 			{
-				int j=0;
-				while(thread_list[j].isAlive())
-				{
-					j++;
-					if (Math.random()<0.001d)
-						j=(int)(Math.random()*n_proc);
-					j=j%n_proc;
-				}
-				Read r = population.get(i);
-				Runnable runnable = new alignThread(r, genomeDictionary, referenceGenome, avgReadLength, stdReadLength, matrix, gop, gep, kmer);
-				thread_list[j] = new Thread(runnable);
-				thread_list[j].start();
-				i++;
+				keys[k]=AlignmentCache.key(pending.get(k).sequence);
+				lengths[k]=pending.get(k).sequence.length();
 			}
-			for (int o=0; o<perc.length(); o++)
-				System.out.print("\b");
 		}
-		int j=0;
-		while(j<n_proc)
+		final SeedHits [] seeds = new SeedHits [pool.threads];
+		final BandedAligner [] aligners = new BandedAligner [pool.threads];
+		for (int j=0; j<pool.threads; j++)
 		{
-			if (!thread_list[j].isAlive())
-				j++;
+			seeds[j] = new SeedHits();
+			aligners[j] = new BandedAligner();
 		}
+		pool.run(pending.size(),new WorkerPool.Task()
+		{
+			public void run(int from, int to, int slot)
+			{
+				new alignThread(pending, from, to, genomeDictionary, referenceGenome, avgReadLength, stdReadLength, matrix, gop, gep, kmer, seeds[slot], aligners[slot]).run();
+			}
+		},true);
 		System.out.print("100%\r\n");
+		if (alignmentCache!=null)
+		{
+			for (int k=0; k<pending.size(); k++)
+				alignmentCache.put(keys[k],lengths[k],pending.get(k));
+			System.out.println("\t"+alignmentCache.hits+" of "+population.size()+" distinct reads taken from the alignment cache");
+		}
+		reportAlignments(seeds,aligners,"reads");
+		setAlignmentRange();
 		
+		Date d2 = new Date();
+		long stoptime=d2.getTime();
+		long timePassed=stoptime-starttime;
+		System.out.println("\ttime employed = "+timePassed+" ms");
+	}
+	
+	void reportAlignments(SeedHits [] seeds, BandedAligner [] aligners, String unit)
+	{
+		long seeded = 0;
+		long ungapped = 0;
+		long ambiguous = 0;
+		long rejected = 0;
+		for (int j=0; j<seeds.length; j++)
+		{
+			rejected+=seeds[j].rejected;
+			seeded+=aligners[j].alignments;
+			ungapped+=aligners[j].ungapped;
+			ambiguous+=seeds[j].ambiguousStrands;
+		}
+		// reads taken from the alignment cache were rejected when they were first aligned
+		String cached = "";
+		if (alignmentCache!=null)
+		{
+			rejected+=alignmentCache.unmapped;
+			cached=", "+alignmentCache.unmapped+" of them from the alignment cache";
+		}
+		System.out.println("\t"+rejected+" "+unit+" rejected as unmappable (seed density below "+Functions.MIN_SEED_DENSITY+cached+")");
+		System.out.println("\t"+ambiguous+" "+unit+" with ambiguous strand votes aligned on both strands");
+		System.out.println("\t"+ungapped+" of "+seeded+" seeded alignments took the ungapped path");
+	}
+	
+	void setAlignmentRange()
+	{
 		double gSta=-1;
 		double gSto=-1;
-		for (i=0; i<population.size(); i++)
+		boolean first=true;
+		for (int i=0; i<population.size(); i++)
 		{
+			if (this.population.get(i).orientation.equals("unmapped"))
+				continue;
 			double sta = (double)(this.population.get(i).start);
 			double sto = (double)(this.population.get(i).stop);
-			if (i==0)
+			if (first)
 			{
 				gSta=sta;
 				gSto=sto;
+				first=false;
 			}
 			if (sta<gSta)
 				gSta=sta;
@@ -814,11 +824,198 @@ public class ReadSet
 		}
 		alignStart=gSta;
 		alignStop=gSto;
+	}
+	
+	public String [] readAndAlignReads(String fileNames, int minQuality, boolean collapse, final WorkerPool pool, final float gop, final float gep, final int kmer, int sampleSize)
+	throws Exception
+	{
+		// streaming mode: new distinct reads go in batches through a bounded queue to alignment
+		// workers while the files are still being parsed. The read length statistics that set the
+		// alignment band come from the first STREAM_WARMUP reads. Duplicates are counted aside and
+		// added once the workers are done, so no count changes while its read is aligned. The
+		// reads for the quasi-random scores are drawn here (reservoir sampling over every parsed
+		// read), before alignment trims their sequences
+		Date d1 = new Date();
+		long starttime=d1.getTime();
+		population = new Vector();
+		HashMap<String,Read> unique = collapse?new HashMap():null;
+		int reads = 0;
+		String [] files = fileNames.split(",");
+		long trimmedBases = 0;
+		int discardedReads = 0;
+		int [] extra = new int [1024];
+		String [] queries = new String [sampleSize];
+		Vector<Read> sent = new Vector();
+		Vector<Long> keys = new Vector();
+		Vector<Integer> lengths = new Vector();
+		final ArrayBlockingQueue<Vector<Read>> queue = new ArrayBlockingQueue(STREAM_QUEUE*pool.threads);
+		final SeedHits [] seeds = new SeedHits [pool.threads];
+		final BandedAligner [] aligners = new BandedAligner [pool.threads];
+		for (int j=0; j<pool.threads; j++)
+		{
+			seeds[j] = new SeedHits();
+			aligners[j] = new BandedAligner();
+		}
+		Future consumers = null;
+		double lengthSum = 0;
+		double lengthSquares = 0;
+		Vector<Read> batch = new Vector();
+		for (int i=0; i<files.length; i++)
+		{
+			if (i>0)
+				System.out.println();
+			System.out.print("parsing and aligning \""+files[i]+"\" read file ");
+			SequenceInput in = new SequenceInput(files[i]);
+			FastaReader fr = FastaReader.open(in,FastaReader.READ_TABLE,minQuality);
+			String perc = "";
+			while(true)
+			{
+				Read r = fr.nextRead();
+				if (r==null)
+					break;
+				reads++;
+				if (reads<=sampleSize)
+					queries[reads-1]=r.sequence;
+				else
+				{
+					int j = (int)(Rng.random()*reads);
+					if (j<sampleSize)
+						queries[j]=r.sequence;
+				}
+				if (reads<=STREAM_WARMUP)
+				{
+					lengthSum+=r.sequence.length();
+					lengthSquares+=(double)r.sequence.length()*r.sequence.length();
+				}
+				Read u = (unique==null)?null:unique.get(r.sequence);
+				if (u!=null)
+				{
+					if (u.idx>=extra.length)
+						extra=Arrays.copyOf(extra,Math.max(extra.length*2,u.idx+1));
+					extra[u.idx]++;
+					if (u.duplicates==null)
+						u.duplicates=new Vector();
+					u.duplicates.add(r.name);
+				}
+				else
+				{
+					r.idx=population.size();
+					population.add(r);
+					if (unique!=null)
+						unique.put(r.sequence,r);
+					if (alignmentCache!=null)
+					{
+						long key = AlignmentCache.key(r.sequence);
+						int length = r.sequence.length();
+						if (!alignmentCache.get(r))
+						{
+							sent.add(r);
+							keys.add(key);
+							lengths.add(length);
+							batch.add(r);
+						}
+					}
+					else
+						batch.add(r);
+				}
+				if (consumers==null && reads>=STREAM_WARMUP)
+					consumers=startAligning(queue,seeds,aligners,pool,gop,gep,kmer,lengthSum,lengthSquares,reads);
+				if (batch.size()>=STREAM_BATCH)
+				{
+					send(queue,batch,consumers);
+					batch=new Vector();
+				}
+				String newPerc = (Math.round(100f*((float)(fr.getPosition()))/((float)(Math.max(1,fr.length)))))+"% ";
+				if (!newPerc.equals(perc))
+				{
+					for (int o=0; o<perc.length(); o++)
+						System.out.print("\b");
+					System.out.print(newPerc);
+					perc=newPerc;
+				}
+			}
+			in.close();
+			for (int o=0; o<perc.length(); o++)
+				System.out.print("\b");
+			System.out.print("100%");
+			if (fr instanceof FastqReader)
+			{
+				trimmedBases+=((FastqReader)fr).trimmedBases;
+				discardedReads+=((FastqReader)fr).discardedReads;
+			}
+		}
+		if (consumers==null)
+			consumers=startAligning(queue,seeds,aligners,pool,gop,gep,kmer,lengthSum,lengthSquares,Math.min(reads,STREAM_WARMUP));
+		double bandAvg = avgReadLength;
+		double bandStd = stdReadLength;
+		if (!batch.isEmpty())
+			send(queue,batch,consumers);
+		for (int j=0; j<pool.threads; j++)
+			send(queue,new Vector(),consumers);
+		WorkerPool.join(consumers);
+		for (int k=0; k<population.size() && k<extra.length; k++)
+			population.get(k).count+=extra[k];
+		for (int k=reads; k<sampleSize && reads>0; k++)
+			queries[k]=queries[(int)(Rng.random()*reads)];
+		if (alignmentCache!=null)
+			for (int k=0; k<sent.size(); k++)
+				alignmentCache.put(keys.get(k),lengths.get(k),sent.get(k));
+		reportReads(reads,collapse,minQuality,trimmedBases,discardedReads);
+		System.out.println("\talignment band set from the first "+Math.min(reads,STREAM_WARMUP)+" reads: average (st.dev.) length "+Math.round(bandAvg)+" ("+Math.round(bandStd)+")");
+		if (alignmentCache!=null)
+			System.out.println("\t"+alignmentCache.hits+" of "+population.size()+" distinct reads taken from the alignment cache");
+		reportAlignments(seeds,aligners,"distinct reads");
+		setAlignmentRange();
 		
 		Date d2 = new Date();
 		long stoptime=d2.getTime();
 		long timePassed=stoptime-starttime;
 		System.out.println("\ttime employed = "+timePassed+" ms");
+		return queries;
+	}
+	
+	Future startAligning(final ArrayBlockingQueue<Vector<Read>> queue, final SeedHits [] seeds, final BandedAligner [] aligners, final WorkerPool pool, final float gop, final float gep, final int kmer, double lengthSum, double lengthSquares, int n)
+	{
+		// one consumer per pool thread, each on its own slot buffers, until it takes an empty batch
+		avgReadLength=lengthSum/Math.max(1,n);
+		stdReadLength=Math.sqrt(Math.max(0,lengthSquares/Math.max(1,n)-avgReadLength*avgReadLength));
+		final double avg = avgReadLength;
+		final double std = stdReadLength;
+		final WorkerPool.Task consumer = new WorkerPool.Task()
+		{
+			public void run(int from, int to, int slot)
+			throws Exception
+			{
+				while (true)
+				{
+					Vector<Read> b = queue.take();
+					if (b.isEmpty())
+						return;
+					new alignThread(b, 0, b.size(), genomeDictionary, referenceGenome, avg, std, matrix, gop, gep, kmer, seeds[slot], aligners[slot]).run();
+				}
+			}
+		};
+		return pool.stage(new Callable<Object>()
+		{
+			public Object call()
+			throws Exception
+			{
+				pool.run(pool.threads,1,consumer,false);
+				return null;
+			}
+		});
+	}
+	
+	static void send(ArrayBlockingQueue<Vector<Read>> queue, Vector<Read> batch, Future consumers)
+	throws Exception
+	{
+		// blocks while the workers are behind; a failed worker is reported instead of waited for
+		while (!queue.offer(batch,100,TimeUnit.MILLISECONDS))
+			if (consumers!=null && consumers.isDone())
+			{
+				WorkerPool.join(consumers);
+				throw new IllegalStateException("alignment workers stopped before the end of the reads");
+			}
 	}
 	
 	public class randomAmpliconThread implements Runnable 
@@ -852,7 +1049,8 @@ public class ReadSet
 		}
 	}
 	
-	public void estimateAmpliconsParallel(int runs, int n_proc)
+	public void estimateAmpliconsParallel(int runs, WorkerPool pool)
+	throws Exception
 	{
 		Vector<Read> pop = new Vector();
 		int subSetSize=(int)((double)(population.size())/2d);
@@ -888,7 +1086,7 @@ public class ReadSet
 		for (int count=0; count<windowSizes.length; count++)
 		{
 			if (windowSizes[count]<50)
-				windowSizes[count]=Math.max(50,Math.random()*avgReadLength/2);
+				windowSizes[count]=Math.max(50,Rng.random()*avgReadLength/2);
 		}
 		
 	//double [] steps = {0.5d};
@@ -934,46 +1132,25 @@ public class ReadSet
 		System.out.print("100%   ");
 		System.out.println();
 		System.out.print("\tphase 1: random overlaps ");
-		int t=0;
-		Thread [] thread_list = new Thread [n_proc];
-		while(t<runs)
+		final AmpliconSet [] randomSets = new AmpliconSet [runs];
+		for (int t=0; t<runs; t++)
 		{
-			String perc = (Functions.roundToDecimals(100f*((float)(t))/((float)(runs)),2))+"%  ";
-			System.out.print(perc);
-			if (t==0)
-				for (int j=0; j<n_proc; j++)
-				{
-					AmpliconSet a = new AmpliconSet();
-					ampliconList.add(a);
-					Runnable runnable = new randomAmpliconThread(avgReadLength, stdReadLength, alignStart, alignStop, a, pop);
-					thread_list[j] = new Thread(runnable);
-					thread_list[j].start();
-					t++;
-				}
-			else
+			randomSets[t] = new AmpliconSet();
+			ampliconList.add(randomSets[t]);
+		}
+		final Vector<Read> randomPop = pop;
+		final long stage = Rng.stage();
+		pool.run(runs,1,new WorkerPool.Task()
+		{
+			public void run(int from, int to, int slot)
 			{
-				int j=0;
-				while(thread_list[j].isAlive())
+				for (int t=from; t<to; t++)
 				{
-					j++;
-					j=j%n_proc;
+					Rng.item(stage,t);
+					new randomAmpliconThread(avgReadLength, stdReadLength, alignStart, alignStop, randomSets[t], randomPop).run();
 				}
-				AmpliconSet a = new AmpliconSet();
-				ampliconList.add(a);
-				Runnable runnable = new randomAmpliconThread(avgReadLength, stdReadLength, alignStart, alignStop, a, pop);
-				thread_list[j] = new Thread(runnable);
-				thread_list[j].start();
-				t++;
 			}
-			for (int o=0; o<perc.length(); o++)
-				System.out.print("\b");
-		}
-		int j=0;
-		while(j<n_proc)
-		{
-			if (!thread_list[j].isAlive())
-				j++;
-		}
+		},true);
 		System.out.print("100%  ");
 		System.out.println();
 		System.out.println("\tphase 3: assessing best a-posteriori overlaps set");
@@ -0,0 +1,176 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.zip.*;
+
+public class ReferenceIndex
+{
+	public static final int MAGIC = 0x51524958;
+	public static final int VERSION = 1;
+	public static final byte HOMOPOLYMER = 1;
+	public static final byte HOMOPOLYMER_INDEL = 2;
+
+	public String name;
+	public String sequence;
+	public KmerIndex dictionary;
+	public byte [] homopolymers;
+	public long checksum;
+	public long fastaLength;
+
+	public ReferenceIndex(String n, String s, KmerIndex d, long c, long l)
+	{
+		name=n;
+		sequence=s;
+		dictionary=d;
+		homopolymers=annotate(s);
+		checksum=c;
+		fastaLength=l;
+	}
+
+	ReferenceIndex()
+	{
+	}
+
+	public static byte [] annotate(String genome)
+	{
+		// same windows as Functions.isHomopolymeric: a run of three identical bases starting
+		// in [position-2, position] (substitutions) or [position-2, position+1] (indels)
+		int n = genome.length();
+		boolean [] run = new boolean [n];
+		for (int j=0; j+2<n; j++)
+		{
+			char c = genome.charAt(j);
+			run[j] = ((c=='A' || c=='C' || c=='G' || c=='T') && genome.charAt(j+1)==c && genome.charAt(j+2)==c);
+		}
+		byte [] h = new byte [n];
+		for (int i=0; i<n; i++)
+		{
+			for (int j=Math.max(0,i-2); j<=i; j++)
+				if (run[j])
+					h[i]|=HOMOPOLYMER;
+			if (h[i]!=0 || (i+1<n && run[i+1]))
+				h[i]|=HOMOPOLYMER_INDEL;
+		}
+		return h;
+	}
+
+	public boolean isHomopolymeric(int position, boolean indel)
+	{
+		if (indel)
+			return (homopolymers[position]&HOMOPOLYMER_INDEL)!=0;
+		return (homopolymers[position]&HOMOPOLYMER)!=0;
+	}
+
+	public static long checksum(String file)
+	throws IOException
+	{
+		CRC32 crc = new CRC32();
+		FileInputStream in = new FileInputStream(file);
+		byte [] buffer = new byte [1<<16];
+		int n;
+		while ((n=in.read(buffer))>0)
+			crc.update(buffer,0,n);
+		in.close();
+		return crc.getValue();
+	}
+
+	public void write(String file)
+	throws IOException
+	{
+		// written next to the target and renamed, so concurrent runs never map a partial index
+		File target = new File(file);
+		File tmp = new File(file+"."+System.nanoTime()+".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),1<<16));
+		byte [] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(checksum);
+		out.writeLong(fastaLength);
+		out.writeInt(dictionary.k);
+		out.writeInt(sequence.length());
+		out.writeInt(nameBytes.length);
+		out.writeInt(dictionary.offsets.length);
+		out.writeInt(dictionary.positions.length);
+		out.writeInt((dictionary.slotKeys==null)?0:dictionary.slotKeys.length);
+		out.write(nameBytes);
+		out.write(sequence.getBytes(StandardCharsets.ISO_8859_1));
+		out.write(homopolymers);
+		for (int i=0; i<dictionary.offsets.length; i++)
+			out.writeInt(dictionary.offsets[i]);
+		for (int i=0; i<dictionary.positions.length; i++)
+			out.writeInt(dictionary.positions[i]);
+		if (dictionary.slotKeys!=null)
+			for (int i=0; i<dictionary.slotKeys.length; i++)
+				out.writeLong(dictionary.slotKeys[i]);
+		out.close();
+		if (!tmp.renameTo(target))
+		{
+			target.delete();
+			if (!tmp.renameTo(target))
+			{
+				tmp.delete();
+				throw new IOException("cannot write reference index \""+file+"\"");
+			}
+		}
+	}
+
+	public static ReferenceIndex load(String file, long checksum, long fastaLength, int kmer)
+	throws IOException
+	{
+		// returns null when the index is missing, from another version, built with another
+		// k-mer size or for a different reference file
+		File f = new File(file);
+		if (!f.isFile() || f.length()<48)
+			return null;
+		FileInputStream in = new FileInputStream(f);
+		try
+		{
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+			if (map.getInt()!=MAGIC || map.getInt()!=VERSION)
+				return null;
+			if (map.getLong()!=checksum || map.getLong()!=fastaLength || map.getInt()!=kmer)
+				return null;
+			int genomeLength = map.getInt();
+			int nameLength = map.getInt();
+			int slots = map.getInt();
+			int total = map.getInt();
+			int keys = map.getInt();
+			long expected = 48L+nameLength+2L*genomeLength+4L*slots+4L*total+8L*keys;
+			if (channel.size()!=expected)
+				return null;
+			ReferenceIndex ri = new ReferenceIndex();
+			ri.checksum=checksum;
+			ri.fastaLength=fastaLength;
+			byte [] nameBytes = new byte [nameLength];
+			map.get(nameBytes);
+			ri.name=new String(nameBytes,StandardCharsets.UTF_8);
+			byte [] seq = new byte [genomeLength];
+			map.get(seq);
+			ri.sequence=new String(seq,StandardCharsets.ISO_8859_1);
+			ri.homopolymers=new byte [genomeLength];
+			map.get(ri.homopolymers);
+			int [] offsets = new int [slots];
+			int [] positions = new int [total];
+			long [] slotKeys = null;
+			map.asIntBuffer().get(offsets);
+			map.position(map.position()+4*slots);
+			map.asIntBuffer().get(positions);
+			map.position(map.position()+4*total);
+			if (keys>0)
+			{
+				slotKeys=new long [keys];
+				map.asLongBuffer().get(slotKeys);
+			}
+			ri.dictionary=new KmerIndex(kmer,genomeLength,offsets,positions,slotKeys);
+			return ri;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
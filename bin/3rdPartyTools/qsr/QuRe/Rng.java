@@ -0,0 +1,73 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+public class Rng
+{
+	static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	static long seed = System.nanoTime();
+	static final ThreadLocal<SplittableRandom> streams = new ThreadLocal<SplittableRandom>()
+	{
+		protected SplittableRandom initialValue()
+		{
+			// only threads that never started a work item end up here
+			return new SplittableRandom(mix(seed+Thread.currentThread().getId()*GOLDEN_GAMMA));
+		}
+	};
+
+	public static void setSeed(long s)
+	{
+		// the calling (main) thread draws from the seed itself, every work item from a stream
+		// derived from a stage seed and its index, so runs do not depend on the thread count
+		seed=s;
+		streams.set(new SplittableRandom(s));
+	}
+
+	public static long getSeed()
+	{
+		return seed;
+	}
+
+	static long mix(long z)
+	{
+		z=(z^(z>>>30))*0xbf58476d1ce4e5b9L;
+		z=(z^(z>>>27))*0x94d049bb133111ebL;
+		return z^(z>>>31);
+	}
+
+	public static long stage()
+	{
+		// seed of a parallel stage, drawn on the thread that starts it
+		return streams.get().nextLong();
+	}
+
+	public static void item(long stage, long index)
+	{
+		streams.set(new SplittableRandom(mix(stage+index*GOLDEN_GAMMA)));
+	}
+
+	public static SplittableRandom get()
+	{
+		return streams.get();
+	}
+
+	public static double random()
+	{
+		return streams.get().nextDouble();
+	}
+
+	public static double gaussian()
+	{
+		// Marsaglia's polar method, one of the pair is dropped
+		SplittableRandom r = streams.get();
+		while (true)
+		{
+			double v1 = 2*r.nextDouble()-1;
+			double v2 = 2*r.nextDouble()-1;
+			double s = v1*v1+v2*v2;
+			if (s<1 && s!=0)
+				return v1*Math.sqrt(-2*Math.log(s)/s);
+		}
+	}
+}
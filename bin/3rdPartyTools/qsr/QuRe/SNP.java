@@ -1,45 +1,158 @@
 import java.io.*;
 import java.lang.*;
 import java.util.*;
-import java.util.logging.*;
-import java.math.*;
-import jaligner.Alignment;
-import jaligner.Sequence;
-import jaligner.SmithWatermanGotoh;
-import jaligner.formats.Pair;
-import jaligner.formats.CLUSTAL;
-import jaligner.formats.FASTA;
-import jaligner.matrix.*;
-import jaligner.util.SequenceParser;
 
 public class SNP
 {
-	public double position;
-	public char consensus;
-	public char base;
-	
-	public SNP()
+	// a variation packed in one long: its coordinate (reference position and insertion rank, see
+	// Coordinate), reference and alternative base (8 bits each). Sorting the longs sorts the
+	// variations by coordinate
+	public static final long [] NONE = new long [0];
+
+	public static long encode(long coordinate, char reference, char base)
+	{
+		return (coordinate<<16)|((long)(reference&0xff)<<8)|(long)(base&0xff);
+	}
+
+	public static int position(long snp)
+	{
+		return Coordinate.position(coordinate(snp));
+	}
+
+	public static char reference(long snp)
+	{
+		return (char)((snp>>>8)&0xff);
+	}
+
+	public static char base(long snp)
+	{
+		return (char)(snp&0xff);
+	}
+
+	public static long coordinate(long snp)
+	{
+		return snp>>>16;
+	}
+
+	public static boolean isIndel(long snp)
+	{
+		return (reference(snp)=='-' || base(snp)=='-');
+	}
+
+	public static String toString(long snp)
+	{
+		return reference(snp)+"_"+Coordinate.toString(coordinate(snp))+"_"+base(snp)+",";
+	}
+
+	public static String toString(long [] snps)
+	{
+		StringBuilder s = new StringBuilder();
+		for (int i=0; i<snps.length; i++)
+			s.append(toString(snps[i]));
+		return s.toString();
+	}
+
+	public static int indexOf(long [] snps, long coordinate)
+	{
+		// binary search on the coordinate, -1 when no variation sits there
+		int lo = 0;
+		int hi = snps.length-1;
+		while (lo<=hi)
+		{
+			int mid = (lo+hi)>>>1;
+			long c = coordinate(snps[mid]);
+			if (c<coordinate)
+				lo=mid+1;
+			else if (c>coordinate)
+				hi=mid-1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	public static long [] range(long [] snps, double sta, double sto)
+	{
+		// the variations located in [sta,sto]
+		long first = Coordinate.from(sta);
+		long last = Coordinate.to(sto);
+		int from = 0;
+		while (from<snps.length && coordinate(snps[from])<first)
+			from++;
+		int to = from;
+		while (to<snps.length && coordinate(snps[to])<=last)
+			to++;
+		if (from==0 && to==snps.length)
+			return snps;
+		return Arrays.copyOfRange(snps,from,to);
+	}
+
+	public static boolean contains(long [] snps, long snp)
 	{
-		position=-1;
-		consensus='X';
-		base='X';
+		return Arrays.binarySearch(snps,snp)>=0;
 	}
-	
-	public SNP(double p, char c, char b)
+
+	public static long [] differences(long [] a, long [] b)
+	{
+		// variations of a missing from b, then those of b missing from a. The arrays are sorted
+		// but may repeat a variation, which then counts once per copy
+		long [] d = new long [a.length+b.length];
+		int n = 0;
+		for (int i=0; i<a.length; i++)
+			if (!contains(b,a[i]))
+				d[n++]=a[i];
+		for (int j=0; j<b.length; j++)
+			if (!contains(a,b[j]))
+				d[n++]=b[j];
+		return Arrays.copyOf(d,n);
+	}
+
+	public static int distance(long [] a, long [] b)
 	{
-		position=p;
-		consensus=c;
-		base=b;
+		// number of differences; as with the comma-separated lists this replaces, an empty set
+		// still counts one difference against a non-empty one
+		int distance = differences(a,b).length;
+		if ((a.length==0)!=(b.length==0))
+			distance++;
+		return distance;
 	}
-	
-	public String toString()
+
+	public static long [] concat(long [] a, long [] b)
 	{
-		String s = consensus+"_"+position+"_"+base+",";
-		return s;
+		// all the variations of both sorted arrays, sorted; one held by both is kept twice, as
+		// the concatenated lists this replaces listed it
+		long [] m = new long [a.length+b.length];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while (i<a.length || j<b.length)
+		{
+			if (j==b.length || (i<a.length && a[i]<=b[j]))
+				m[n++]=a[i++];
+			else
+				m[n++]=b[j++];
+		}
+		return m;
 	}
-	
-	public boolean equals(SNP b)
+
+	public static class Key
 	{
-		return (this.position==b.position && this.consensus==b.consensus && this.base==b.base);
+		// a sorted array of variations as a hash key
+		public long [] SNPs;
+
+		public Key(long [] s)
+		{
+			SNPs=s;
+		}
+
+		public int hashCode()
+		{
+			return Arrays.hashCode(SNPs);
+		}
+
+		public boolean equals(Object o)
+		{
+			return (o instanceof Key && Arrays.equals(SNPs,((Key)o).SNPs));
+		}
 	}
 }
@@ -0,0 +1,94 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import jaligner.Alignment;
+import jaligner.Sequence;
+import jaligner.SmithWatermanGotoh;
+import jaligner.matrix.*;
+
+public class ScoreAligner
+{
+	public String kernel;
+	public Matrix matrix;
+	public float gop;
+	public float gep;
+	StripedAligner striped;
+	float [] v;
+	float [] g;
+
+	public ScoreAligner(String k, Matrix m, float o, float e)
+	{
+		// one per thread: the kernel buffers are reused from one score to the next
+		kernel=k;
+		matrix=m;
+		gop=o;
+		gep=e;
+		striped=null;
+		if (kernel.equals("striped"))
+			striped=new StripedAligner(m,o,e);
+		v=new float [1024];
+		g=new float [1024];
+	}
+
+	public float score(String q, String r, int refStart, int refStop)
+	{
+		if (striped!=null)
+			return striped.score(q,r,refStart,refStop);
+		if (kernel.equals("jaligner"))
+			return SmithWatermanGotoh.align(new Sequence(q,"","",0),new Sequence(r.substring(refStart,refStop),"","",0),matrix,gop,gep).getScore();
+		return scalarScore(q,r,refStart,refStop);
+	}
+
+	public float scalarScore(String q, String r, int refStart, int refStop)
+	{
+		// jaligner's SmithWatermanGotoh recurrences in the same float arithmetic, keeping only the
+		// previous row of v and g instead of the n*m traceback matrices
+		int m = q.length();
+		int n = refStop-refStart;
+		if (n+1>v.length)
+		{
+			v=new float [Math.max(v.length*2,n+1)];
+			g=new float [v.length];
+		}
+		float [][] scores = matrix.getScores();
+		float o = gop;
+		float e = gep;
+		v[0]=0;
+		g[0]=Float.NEGATIVE_INFINITY;
+		for (int j=1; j<=n; j++)
+		{
+			v[j]=0;
+			g[j]=Float.NEGATIVE_INFINITY;
+		}
+		float best = 0;
+		for (int i=1; i<=m; i++)
+		{
+			float [] row = scores[q.charAt(i-1)];
+			float h = Float.NEGATIVE_INFINITY;
+			float vDiagonal = v[0];
+			for (int j=1; j<=n; j++)
+			{
+				float f = vDiagonal+row[r.charAt(refStart+j-1)];
+				float g1 = g[j]-e;
+				float g2 = v[j]-o;
+				float gj = (g1>g2)?g1:g2;
+				g[j]=gj;
+				float h1 = h-e;
+				float h2 = v[j-1]-o;
+				h = (h1>h2)?h1:h2;
+				vDiagonal=v[j];
+				float vj = f;
+				if (gj>vj)
+					vj=gj;
+				if (h>vj)
+					vj=h;
+				if (vj<0)
+					vj=0;
+				v[j]=vj;
+				if (vj>best)
+					best=vj;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,85 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+
+public class SeedHits
+{
+	public int [] fwdPositions;
+	public int [] fwdOffsets;
+	public int fwdCount;
+	public int [] rwdPositions;
+	public int [] rwdOffsets;
+	public int rwdCount;
+	public int fwdMapPos;
+	public int fwdVotes;
+	public double fwdConfidence;
+	public int fwdDiagonal;
+	public int fwdSpread;
+	public int rwdMapPos;
+	public int rwdVotes;
+	public double rwdConfidence;
+	public int rwdDiagonal;
+	public int rwdSpread;
+	public int votes;
+	public double confidence;
+	public int diagonal;
+	public int spread;
+	public long ambiguousStrands;
+	public long rejected;
+	int [] bins;
+
+	public SeedHits()
+	{
+		fwdPositions=new int [1024];
+		fwdOffsets=new int [1024];
+		fwdCount=0;
+		rwdPositions=new int [1024];
+		rwdOffsets=new int [1024];
+		rwdCount=0;
+		bins=new int [0];
+		ambiguousStrands=0;
+		rejected=0;
+	}
+
+	public int [] getBins(int size)
+	{
+		// the vote bins are cleared by their user, so only growing needs a fresh array
+		if (bins.length<size)
+			bins=new int [size];
+		return bins;
+	}
+
+	public void clear()
+	{
+		fwdCount=0;
+		rwdCount=0;
+	}
+
+	public void addFwd(int [] positions, int from, int to, int offset)
+	{
+		int n = to-from;
+		if (fwdCount+n>fwdPositions.length)
+		{
+			int size = Math.max(fwdPositions.length*2,fwdCount+n);
+			fwdPositions=Arrays.copyOf(fwdPositions,size);
+			fwdOffsets=Arrays.copyOf(fwdOffsets,size);
+		}
+		System.arraycopy(positions,from,fwdPositions,fwdCount,n);
+		Arrays.fill(fwdOffsets,fwdCount,fwdCount+n,offset);
+		fwdCount+=n;
+	}
+
+	public void addRwd(int [] positions, int from, int to, int offset)
+	{
+		int n = to-from;
+		if (rwdCount+n>rwdPositions.length)
+		{
+			int size = Math.max(rwdPositions.length*2,rwdCount+n);
+			rwdPositions=Arrays.copyOf(rwdPositions,size);
+			rwdOffsets=Arrays.copyOf(rwdOffsets,size);
+		}
+		System.arraycopy(positions,from,rwdPositions,rwdCount,n);
+		Arrays.fill(rwdOffsets,rwdCount,rwdCount+n,offset);
+		rwdCount+=n;
+	}
+}
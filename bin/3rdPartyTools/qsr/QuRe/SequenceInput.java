@@ -0,0 +1,115 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+public class SequenceInput extends InputStream
+{
+	public static final long SEGMENT_SIZE = 1L<<30;
+
+	public String fileName;
+	public long length;
+	public boolean compressed;
+	FileInputStream file;
+	FileChannel channel;
+	InputStream gzip;
+	MappedByteBuffer segment;
+	long segmentOffset;
+
+	public SequenceInput(String f)
+	throws IOException
+	{
+		fileName=f;
+		file=new FileInputStream(f);
+		channel=file.getChannel();
+		length=channel.size();
+		segment=null;
+		segmentOffset=0;
+		compressed=isGzipped(channel);
+		if (compressed)
+			gzip=new GZIPInputStream(new BufferedInputStream(file,1<<16),1<<16);
+		else
+			gzip=null;
+	}
+
+	public static boolean isGzipped(FileChannel fc)
+	throws IOException
+	{
+		if (fc.size()<2)
+			return false;
+		ByteBuffer magic = ByteBuffer.allocate(2);
+		while (magic.hasRemaining())
+			if (fc.read(magic,magic.position())<0)
+				return false;
+		return ((magic.get(0)&0xff)==0x1f && (magic.get(1)&0xff)==0x8b);
+	}
+
+	public static String stripExtensions(String fileName)
+	{
+		String s = fileName;
+		if (s.toLowerCase().endsWith(".gz"))
+			s=s.substring(0,s.length()-3);
+		if (s.lastIndexOf('.')!=-1)
+			s=s.substring(0,s.lastIndexOf('.'));
+		return s;
+	}
+
+	public long getPosition()
+	throws IOException
+	{
+		if (compressed)
+			return channel.position();
+		if (segment==null)
+			return segmentOffset;
+		return segmentOffset+segment.position();
+	}
+
+	boolean nextSegment()
+	throws IOException
+	{
+		if (segment!=null)
+			segmentOffset+=segment.limit();
+		if (segmentOffset>=length)
+		{
+			segment=null;
+			return false;
+		}
+		segment=channel.map(FileChannel.MapMode.READ_ONLY,segmentOffset,Math.min(SEGMENT_SIZE,length-segmentOffset));
+		return true;
+	}
+
+	public int read()
+	throws IOException
+	{
+		byte [] b = new byte [1];
+		if (read(b,0,1)<=0)
+			return -1;
+		return b[0]&0xff;
+	}
+
+	public int read(byte [] b, int off, int len)
+	throws IOException
+	{
+		if (compressed)
+			return gzip.read(b,off,len);
+		if (len==0)
+			return 0;
+		while (segment==null || !segment.hasRemaining())
+			if (!nextSegment())
+				return -1;
+		int n = Math.min(len,segment.remaining());
+		segment.get(b,off,n);
+		return n;
+	}
+
+	public void close()
+	throws IOException
+	{
+		segment=null;
+		if (gzip!=null)
+			gzip.close();
+		file.close();
+	}
+}
@@ -0,0 +1,243 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.util.logging.*;
+import jaligner.Alignment;
+import jaligner.Sequence;
+import jaligner.SmithWatermanGotoh;
+import jaligner.matrix.*;
+
+public class StripedAligner
+{
+	public static final int LANES = 4;
+	public static final int SCALE = 10;
+	public static final int CHECK_PAIRS = 64;
+	public static final float CHECK_TOLERANCE = 0.01f;
+	static final int NEG = -(1<<28);
+
+	public int [][] scores;
+	public int gapOpen;
+	public int gapExtend;
+	int [] profile;
+	int [] profileRow;
+	char [] profileChars;
+	int profileCount;
+	int [] hLoad;
+	int [] hStore;
+	int [] e;
+
+	public StripedAligner(Matrix matrix, float gop, float gep)
+	{
+		// Farrar's striped layout: query position lane*segLen+k lives in slot k*LANES+lane, so every
+		// segment is a run of LANES independent cells; scores are kept as integers scaled by SCALE
+		float [][] s = matrix.getScores();
+		scores=new int [s.length][];
+		for (int i=0; i<s.length; i++)
+		{
+			scores[i]=new int [s[i].length];
+			for (int j=0; j<s[i].length; j++)
+				scores[i][j]=scaled(s[i][j]);
+		}
+		gapOpen=scaled(gop);
+		gapExtend=scaled(gep);
+		profile=new int [0];
+		profileRow=new int [s.length];
+		Arrays.fill(profileRow,-1);
+		profileChars=new char [s.length];
+		profileCount=0;
+		hLoad=new int [0];
+		hStore=new int [0];
+		e=new int [0];
+	}
+
+	static int scaled(float f)
+	{
+		int i = Math.round(f*SCALE);
+		if (Math.abs(f*SCALE-i)>1e-3f)
+			throw new IllegalArgumentException("score "+f+" is not a multiple of 1/"+SCALE);
+		return i;
+	}
+
+	public static boolean supports(Matrix matrix, float gop, float gep)
+	{
+		try
+		{
+			new StripedAligner(matrix,gop,gep);
+			return true;
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return false;
+		}
+	}
+
+	int row(char c, String q, int m, int segLen)
+	{
+		int r = profileRow[c];
+		if (r>=0)
+			return r;
+		int size = segLen*LANES;
+		r=profileCount*size;
+		if (r+size>profile.length)
+			profile=Arrays.copyOf(profile,Math.max(profile.length*2,r+size));
+		int [] s = scores[c];
+		for (int k=0; k<segLen; k++)
+			for (int lane=0; lane<LANES; lane++)
+			{
+				int i = lane*segLen+k;
+				profile[r+k*LANES+lane] = (i<m)?s[q.charAt(i)]:NEG;
+			}
+		profileRow[c]=r;
+		profileChars[profileCount++]=c;
+		return r;
+	}
+
+	public float score(String q, String r, int refStart, int refStop)
+	{
+		// best local alignment score of q against r[refStart,refStop), no traceback; the LANES
+		// cells of a segment are independent, so they are kept in locals and updated side by side
+		int m = q.length();
+		int segLen = (m+LANES-1)/LANES;
+		int size = segLen*LANES;
+		if (size>hLoad.length)
+		{
+			hLoad=new int [size];
+			hStore=new int [size];
+			e=new int [size];
+		}
+		for (int i=0; i<profileCount; i++)
+			profileRow[profileChars[i]]=-1;
+		profileCount=0;
+		Arrays.fill(hLoad,0,size,0);
+		Arrays.fill(e,0,size,NEG);
+		int [] hl = hLoad;
+		int [] hs = hStore;
+		int [] ee = e;
+		int go = gapOpen;
+		int ge = gapExtend;
+		int best = 0;
+		int last = size-LANES;
+		for (int j=refStart; j<refStop; j++)
+		{
+			int p = row(r.charAt(j),q,m,segLen);
+			int [] pr = profile;
+			int h0 = 0;
+			int h1 = hl[last];
+			int h2 = hl[last+1];
+			int h3 = hl[last+2];
+			int f0 = NEG;
+			int f1 = NEG;
+			int f2 = NEG;
+			int f3 = NEG;
+			for (int x=0; x<size; x+=LANES)
+			{
+				int e0 = ee[x];
+				int e1 = ee[x+1];
+				int e2 = ee[x+2];
+				int e3 = ee[x+3];
+				int v0 = Math.max(Math.max(Math.max(h0+pr[p+x],e0),f0),0);
+				int v1 = Math.max(Math.max(Math.max(h1+pr[p+x+1],e1),f1),0);
+				int v2 = Math.max(Math.max(Math.max(h2+pr[p+x+2],e2),f2),0);
+				int v3 = Math.max(Math.max(Math.max(h3+pr[p+x+3],e3),f3),0);
+				best=Math.max(best,Math.max(Math.max(v0,v1),Math.max(v2,v3)));
+				hs[x]=v0;
+				hs[x+1]=v1;
+				hs[x+2]=v2;
+				hs[x+3]=v3;
+				v0-=go;
+				v1-=go;
+				v2-=go;
+				v3-=go;
+				ee[x]=Math.max(e0-ge,v0);
+				ee[x+1]=Math.max(e1-ge,v1);
+				ee[x+2]=Math.max(e2-ge,v2);
+				ee[x+3]=Math.max(e3-ge,v3);
+				f0=Math.max(f0-ge,v0);
+				f1=Math.max(f1-ge,v1);
+				f2=Math.max(f2-ge,v2);
+				f3=Math.max(f3-ge,v3);
+				h0=hl[x];
+				h1=hl[x+1];
+				h2=hl[x+2];
+				h3=hl[x+3];
+			}
+			// lazy F: carry vertical gaps across segment boundaries until they stop mattering
+			boolean more = true;
+			for (int pass=0; pass<LANES && more; pass++)
+			{
+				f3=f2;
+				f2=f1;
+				f1=f0;
+				f0=NEG;
+				for (int x=0; x<size && more; x+=LANES)
+				{
+					int v0 = Math.max(hs[x],f0);
+					int v1 = Math.max(hs[x+1],f1);
+					int v2 = Math.max(hs[x+2],f2);
+					int v3 = Math.max(hs[x+3],f3);
+					hs[x]=v0;
+					hs[x+1]=v1;
+					hs[x+2]=v2;
+					hs[x+3]=v3;
+					v0-=go;
+					v1-=go;
+					v2-=go;
+					v3-=go;
+					ee[x]=Math.max(ee[x],v0);
+					ee[x+1]=Math.max(ee[x+1],v1);
+					ee[x+2]=Math.max(ee[x+2],v2);
+					ee[x+3]=Math.max(ee[x+3],v3);
+					f0-=ge;
+					f1-=ge;
+					f2-=ge;
+					f3-=ge;
+					more = (f0>v0 || f1>v1 || f2>v2 || f3>v3);
+				}
+			}
+			int [] t = hl;
+			hl=hs;
+			hs=t;
+		}
+		hLoad=hl;
+		hStore=hs;
+		return (float)best/(float)SCALE;
+	}
+
+	public static boolean check(Matrix matrix, float gop, float gep, int pairs)
+	{
+		// compares the kernel with jaligner on a fixed pseudo-random corpus of related and unrelated pairs
+		if (!supports(matrix,gop,gep))
+			return false;
+		Logger l = Logger.getLogger(SmithWatermanGotoh.class.getName());
+		l.setLevel(Level.OFF);
+		StripedAligner sa = new StripedAligner(matrix,gop,gep);
+		Random rnd = new Random(pairs);
+		String alphabet = "ACGTACGTACGTACGTN";
+		for (int t=0; t<pairs; t++)
+		{
+			StringBuilder rb = new StringBuilder();
+			int n = 20+rnd.nextInt(500);
+			for (int i=0; i<n; i++)
+				rb.append("ACGT".charAt(rnd.nextInt(4)));
+			String r = rb.toString();
+			StringBuilder qb = new StringBuilder();
+			int start = rnd.nextInt(n);
+			int m = 1+rnd.nextInt(300);
+			for (int i=start; qb.length()<m; i++)
+			{
+				if (i<n && rnd.nextInt(8)!=0)
+					qb.append(r.charAt(i));
+				else if (rnd.nextInt(4)==0)
+					i+=rnd.nextInt(10);
+				else
+					qb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+			}
+			String q = qb.toString();
+			Alignment a = SmithWatermanGotoh.align(new Sequence(q,"","",0),new Sequence(r,"","",0),matrix,gop,gep);
+			float s = sa.score(q,r,0,n);
+			if (Math.abs(s-a.getScore())>CHECK_TOLERANCE)
+				return false;
+		}
+		return true;
+	}
+}
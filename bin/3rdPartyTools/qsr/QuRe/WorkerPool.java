@@ -0,0 +1,130 @@
+import java.io.*;
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class WorkerPool
+{
+	public interface Task
+	{
+		public void run(int from, int to, int slot)
+		throws Exception;
+	}
+
+	public static final int CHUNKS_PER_THREAD = 8;
+
+	public int threads;
+	ForkJoinPool pool;
+	ExecutorService stages;
+
+	public WorkerPool(int n)
+	{
+		// one pool shared by every parallel phase; the calling thread only joins, it never polls
+		threads=Math.max(1,n);
+		pool=new ForkJoinPool(threads);
+		stages=Executors.newCachedThreadPool(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public Future stage(final Callable stage)
+	{
+		// a pipeline stage running next to the caller; its driver thread only hands chunks to the
+		// pool and waits on them, so it does not take a worker away from the other stages. Its
+		// random stream is seeded from the caller's, when the stage is started
+		final long seed = Rng.stage();
+		return stages.submit(new Callable<Object>()
+		{
+			public Object call()
+			throws Exception
+			{
+				Rng.item(seed,0);
+				return stage.call();
+			}
+		});
+	}
+
+	public void run(int n, Task task, boolean progress)
+	throws Exception
+	{
+		run(n,Math.max(1,n/(threads*CHUNKS_PER_THREAD)),task,progress);
+	}
+
+	public void run(int n, int chunk, final Task task, boolean progress)
+	throws Exception
+	{
+		// items [0,n) are cut into contiguous chunks; each running chunk holds one of the threads
+		// slot numbers, so per-thread state can be kept in arrays of size threads
+		final ConcurrentLinkedQueue<Integer> slots = new ConcurrentLinkedQueue();
+		for (int j=0; j<threads; j++)
+			slots.add(j);
+		Vector<Future> futures = new Vector();
+		for (int from=0; from<n; from+=chunk)
+		{
+			final int f = from;
+			final int t = Math.min(n,from+chunk);
+			futures.add(pool.submit(new Callable<Object>()
+			{
+				public Object call()
+				throws Exception
+				{
+					Integer slot = slots.poll();
+					try
+					{
+						task.run(f,t,slot);
+					}
+					finally
+					{
+						slots.add(slot);
+					}
+					return null;
+				}
+			}));
+		}
+		String perc = "";
+		for (int i=0; i<futures.size(); i++)
+		{
+			join(futures.get(i));
+			if (progress)
+			{
+				String newPerc = (Math.round(100f*((float)(i))/((float)(futures.size()))))+"% ";
+				if (!newPerc.equals(perc))
+				{
+					for (int o=0; o<perc.length(); o++)
+						System.out.print("\b");
+					System.out.print(newPerc);
+					perc=newPerc;
+				}
+			}
+		}
+		for (int o=0; o<perc.length(); o++)
+			System.out.print("\b");
+	}
+
+	public static void join(Future f)
+	throws Exception
+	{
+		try
+		{
+			f.get();
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof Exception)
+				throw (Exception)ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	public void shutdown()
+	{
+		pool.shutdown();
+		stages.shutdown();
+	}
+}
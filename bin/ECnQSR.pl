@@ -358,14 +358,6 @@ if(CheckProgram($bowtie2_excu, __FILE__, __LINE__, $DEBUG_MODE)){
 	InfoError("The program $bowtie2_excu does NOT exist. Exiting...");
 	exit;
 }
-#check fq2fa
-my $fq2fa_excu = File::Spec -> catfile($RealBin,'3rdPartyTools','fastx_toolkit','fq2fa');
-if(CheckProgram($fq2fa_excu, __FILE__, __LINE__, $DEBUG_MODE)){
-	#keep running
-}else{
-	InfoError("The program $fq2fa_excu does NOT exist. Exiting...");
-	exit;
-}
 #check samtools
 my $samtools_excu = File::Spec -> catfile($RealBin,'3rdPartyTools','samtools','samtools');
 if(CheckProgram($samtools_excu, __FILE__, __LINE__, $DEBUG_MODE)){
@@ -420,19 +412,10 @@ if($fq1 ne "null"){
 	my $sampleName = getCommonString(basename($fq1),basename($fq2));
 	$sampleName =~ s/[_\.R]+$//i;
 	
-	#generate fasta file
-	my $fasta1 = File::Spec -> catfile($tmpdir, removeFastqSuffix(basename($fq1)) . ".fasta");
+	#QuRe parses (gzipped) fastq files directly, so no fasta conversion is needed
 	system("gunzip $fq1new") if (isGzipped($fq1new));
-	my $cmd = "$fq2fa_excu -in $fq1 -out $fasta1";
-	runcmd($cmd) if (not existFile($fasta1));
-	
-	my $fasta2 = File::Spec -> catfile($tmpdir, removeFastqSuffix(basename($fq2)) . ".fasta");
 	system("gunzip $fq2new") if (isGzipped($fq2new));
-	$cmd = "$fq2fa_excu -in $fq2 -out $fasta2";
-	runcmd($cmd) if (not existFile($fasta2));
-	
-	my $fastafile = File::Spec -> catfile($tmpdir, $sampleName . ".merge.fasta");
-	system("cat $fasta1 $fasta2 > $fastafile") if (not existFile($fastafile));
+	my $fastafile = "$fq1,$fq2";
 	
 	#generate sam/bam file
 	my $sam = File::Spec -> catfile($tmpdir,$sampleName . ".sam");
@@ -488,19 +471,8 @@ if($fq1 ne "null"){
 	my $sampleName = getCommonString(basename($fq1new),basename($fq2new));
 	$sampleName =~ s/[_\.R]+$//i;
 	
-	#generate fasta file
-	my $fasta1 = File::Spec -> catfile($tmpdir, removeFastqSuffix(basename($fq1new)) . ".fasta");
-	system("gunzip $fq1new") if (isGzipped($fq1new));
-	$cmd = "$fq2fa_excu -in $fq1new -out $fasta1";
-	runcmd($cmd) if (not existFile($fasta1));
-	
-	my $fasta2 = File::Spec -> catfile($tmpdir, removeFastqSuffix(basename($fq2new)) . ".fasta");
-	system("gunzip $fq2new") if (isGzipped($fq2new));
-	$cmd = "$fq2fa_excu -in $fq2new -out $fasta2";
-	runcmd($cmd) if (not existFile($fasta2));
-	
-	my $fastafile = File::Spec -> catfile($tmpdir, $sampleName . ".merge.fasta");
-	system("cat $fasta1 $fasta2 > $fastafile") if (not existFile($fastafile));
+	#QuRe parses the fastq files directly, so no fasta conversion is needed
+	my $fastafile = "$fq1new,$fq2new";
 	
 	##format fasta file
 	my $newref = File::Spec -> catfile($tmpdir, removeFastaSuffix(basename($ref)) . ".2line.fasta");
@@ -542,19 +514,8 @@ if($fq1 ne "null"){
 	my $sampleName = getCommonString(basename($fq1new),basename($fq2new));
 	$sampleName =~ s/[_\.R]+$//i;
 	
-	#generate fasta file
-	my $fasta1 = File::Spec -> catfile($tmpdir, removeFastqSuffix(basename($fq1new)) . ".fasta");
-	system("gunzip $fq1new") if (isGzipped($fq1new));
-	$cmd = "$fq2fa_excu -in $fq1new -out $fasta1";
-	runcmd($cmd) if (not existFile($fasta1));
-	
-	my $fasta2 = File::Spec -> catfile($tmpdir, removeFastqSuffix(basename($fq2new)) . ".fasta");
-	system("gunzip $fq2new") if (isGzipped($fq2new));
-	$cmd = "$fq2fa_excu -in $fq2new -out $fasta2";
-	runcmd($cmd) if (not existFile($fasta2));
-	
-	my $fastafile = File::Spec -> catfile($tmpdir, $sampleName . ".merge.fasta");
-	system("cat $fasta1 $fasta2 > $fastafile") if (not existFile($fastafile));
+	#QuRe parses the fastq files directly, so no fasta conversion is needed
+	my $fastafile = "$fq1new,$fq2new";
 	
 	##format fasta file
 	my $newref = File::Spec -> catfile($tmpdir, removeFastaSuffix(basename($ref)) . ".2line.fasta");
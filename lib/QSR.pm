@@ -170,7 +170,7 @@ sub qsr_pipeline {
 	$ref = abs_path($ref);
 	$fq1 = abs_path($fq1) if $fq1 ne "null";
 	$fq2 = abs_path($fq2) if $fq2 ne "null";
-	$fasta = abs_path($fasta) if $fasta ne "null";
+	$fasta = join(',', map { abs_path($_) } split(/,/, $fasta)) if $fasta ne "null";
 	$bamfile = abs_path($bamfile) if $bamfile ne "null";
 	$samfile = abs_path($samfile) if $samfile ne "null";
 	
@@ -196,11 +196,19 @@ sub qsr_pipeline {
 		my $qure_dir = File::Spec -> catfile($outdir,'QuRe');
 		makedir($qure_dir);
 		
-		##copy input file to out dir
-		my $qurefastafile = File::Spec -> catfile($qure_dir,basename($fasta));
-		copy($fasta,$qure_dir);
+		##link input file(s) to out dir (QuRe writes its results next to the first read file)
+		##QuRe reads plain or gzipped fasta/fastq in place, so no copy is needed
+		my @qurereadfiles;
+		for my $f (split /,/, $fasta){
+			my $qurefile = File::Spec -> catfile($qure_dir,basename($f));
+			unlink $qurefile if -l $qurefile;
+			symlink($f,$qurefile) or copy($f,$qure_dir);
+			push @qurereadfiles, $qurefile;
+		}
+		my $qurefastafile = join(',', @qurereadfiles);
 		my $qurereffile = File::Spec -> catfile($qure_dir,basename($ref));
-		copy($ref,$qure_dir);
+		unlink $qurereffile if -l $qurereffile;
+		symlink($ref,$qurereffile) or copy($ref,$qure_dir);
 		
 		Info("Running QuRe for ECnQSR");
 		qure_pipeline($qure_excu_dir, $qurefastafile, $qurereffile, $qure_dir);